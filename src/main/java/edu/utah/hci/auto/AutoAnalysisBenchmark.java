@@ -0,0 +1,115 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.util.Calendar;
+
+/**Drives the GNomExAutoAnalysis parseRequests -> buildAutoAnalysisJobs -> checkExistingAutoAnalysis stages against a mock Repository
+ * of GNomExSyntheticSource requests to find where the daemon stops scaling. No db, CHPC, MultiQC, jira, or email is touched.
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.AutoAnalysisBenchmark numberRequests samplesPerRequest workDirectory [triageThreads]
+ *
+ * Cycle 1 builds the AutoAnalysis jobs for every request, a COMPLETE file is then added to each job as if returned from CHPC,
+ * cycle 2 finds them all ready for MultiQC, cycle 3 repeats the check since MultiQC is never run here. A COMPLETE file is then added
+ * to each AutoAnalysis dir as if MultiQC ran, cycle 4 passes the COMPLETE checks and seals them, cycle 5 skips the sealed requests.*/
+public class AutoAnalysisBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numberRequests = 10000;
+		int samplesPerRequest = 4;
+		File workDir = new File(System.getProperty("java.io.tmpdir"), "AutoAnalysisBenchmark");
+		if (args.length > 0) numberRequests = Integer.parseInt(args[0]);
+		if (args.length > 1) samplesPerRequest = Integer.parseInt(args[1]);
+		if (args.length > 2) workDir = new File(args[2]);
+		String triageThreads = args.length > 3 ? args[3] : "16";
+		workDir = workDir.getCanonicalFile();
+		Util.pl("Benchmarking "+numberRequests+" requests with "+samplesPerRequest+" samples each in "+workDir);
+
+		//clean out any prior AutoAnalysis but keep the mock Fastq, slow to make
+		String year = Integer.toString(Calendar.getInstance().get(Calendar.YEAR));
+		File repo = new File(workDir, "Repository");
+		File yearDir = new File(repo, year);
+		File linkDir = new File(workDir, "Jobs4CHPC");
+		Util.deleteDirectory(linkDir);
+		if (yearDir.exists()) for (File requestDir: Util.extractOnlyDirectories(yearDir)) {
+			for (File aa: Util.extractFilesPrefix(requestDir, "AutoAnalysis_")) Util.deleteDirectory(aa);
+		}
+		File[] dirs = {new File(repo, "2023"), yearDir, linkDir, new File(workDir, "TempDir"), new File(workDir, "USeq")};
+		for (File d: dirs) d.mkdirs();
+		File jobCleaner = new File(workDir, "USeq/JobCleaner");
+		File aggQC = new File(workDir, "USeq/AggregateQCStats2");
+		File jira = new File(workDir, "builtJiraTickets.txt");
+		Util.writeString("", jobCleaner);
+		Util.writeString("", aggQC);
+		Util.writeString("", jira);
+
+		File wfConfig = new File(workDir, "autoAnalysis.wf.config.txt");
+		Util.writeString(GNomExSyntheticSource.organism+"\t"+GNomExSyntheticSource.libraryPrep+"\t/Workflows/Synthetic/Run/\tNone\n", wfConfig);
+		File cred = new File(workDir, "cred.txt");
+		Util.writeString("benchmark\nbenchmark:benchmark\n", cred);
+
+		File config = new File(workDir, "autoAnalysis.config.txt");
+		String c = "connectionUrl\tjdbc:sqlserver://none;password=XXXXXXXXXX\n"+
+				"requestSource\tsynthetic\n"+
+				"syntheticRequests\t"+numberRequests+"\n"+
+				"syntheticSamplesPerRequest\t"+samplesPerRequest+"\n"+
+				"experimentDir\t"+repo+"\n"+
+				"experimentLinkUrl\thttps://none/\n"+
+				"jiraUrl\thttps://none/\n"+
+				"jiraApiUrl\thttps://none/\n"+
+				"dataPolicyUrl\thttps://none/\n"+
+				"builtJiraTickets\t"+jira+"\n"+
+				"sampleSpeciesFile\t"+new File(workDir, "sampleSpeciesForORA.txt")+"\n"+
+				"hciTempDirectory\t"+new File(workDir, "TempDir")+"\n"+
+				"testRequest\tall\n"+
+				"supportedOrgLibWfConfigFile\t"+wfConfig+"\n"+
+				"useqJobCleaner\t"+jobCleaner+"\n"+
+				"useqAggregateQCStats2\t"+aggQC+"\n"+
+				"analysisReadyEmail\tnone@hci.utah.edu\n"+
+				"hciLinkDirectory\t"+linkDir+"/\n"+
+				"adminEmail\tnone@hci.utah.edu\n"+
+				"triageThreads\t"+triageThreads+"\n"+
+				"hoursToWait\t0\n";
+		Util.writeString(c, config);
+
+		GNomExAutoAnalysis aa = new GNomExAutoAnalysis(new String[] {"-c", config.getPath(), "-p", cred.getPath()}, false);
+
+		long start = System.currentTimeMillis();
+		((GNomExSyntheticSource)aa.getRequestSource()).writeMockRepository(yearDir);
+		Util.pl("\nMock Repository ready in "+(System.currentTimeMillis()-start)+" ms");
+
+		Util.pl("\n########### Cycle 1, build ###########");
+		aa.runTimedCycle();
+
+		//pretend CHPC returned every job
+		start = System.currentTimeMillis();
+		int numberJobs = 0;
+		for (File requestDir: Util.extractOnlyDirectories(yearDir)) {
+			for (File aaDir: Util.extractFilesPrefix(requestDir, "AutoAnalysis_")) {
+				File[] jobs = Util.extractOnlyDirectories(new File(aaDir, "Jobs"));
+				if (jobs == null) continue;
+				for (File job: jobs) {
+					new File(job, "COMPLETE").createNewFile();
+					numberJobs++;
+				}
+			}
+		}
+		Util.pl("\nMarked "+numberJobs+" jobs COMPLETE in "+(System.currentTimeMillis()-start)+" ms");
+
+		Util.pl("\n########### Cycle 2, complete ###########");
+		aa.runTimedCycle();
+
+		Util.pl("\n########### Cycle 3, repeat check ###########");
+		aa.runTimedCycle();
+
+		//pretend MultiQC ran
+		for (File requestDir: Util.extractOnlyDirectories(yearDir)) {
+			for (File aaDir: Util.extractFilesPrefix(requestDir, "AutoAnalysis_")) new File(aaDir, "COMPLETE").createNewFile();
+		}
+
+		Util.pl("\n########### Cycle 4, seal ###########");
+		aa.runTimedCycle();
+
+		Util.pl("\n########### Cycle 5, sealed ###########");
+		aa.runTimedCycle();
+	}
+}
@@ -22,6 +22,11 @@ import java.util.regex.Pattern;
  * Run on redwood2.chpc.utah.edu
  * */
 public class ChpcAutoAnalysis {
+	
+	//same as Util.extractOnlyDirectories()
+	private static final FileSystemScanner jobDirs = new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).setPattern(Pattern.compile("^\\w+.*")).setSort(true);
+	private static final FileSystemScanner jobFiles = new FileSystemScanner(FileSystemScanner.FILES, null, null);
+	private static final FileSystemScanner slurmFiles = new FileSystemScanner(FileSystemScanner.ALL, "slurm-", null);
 
 	//needed config fields
 	private File configFile = null;
@@ -53,6 +58,11 @@ public class ChpcAutoAnalysis {
 	private Random random = new Random();
 	private double hoursPassed = 0;
 	private int jobsProcessed = 0;
+	private double activeCheckMinutes = 10;
+	private RequestScheduler jobScheduler = null;
+	private HashSet<String> dueIds = null;
+	//scheduler key for the ssh listing of new jobs at HCI
+	private static final String hciCheckKey = "HCI new job check";
 	
 	public ChpcAutoAnalysis (String[] args) {
 		try {
@@ -78,7 +88,13 @@ public class ChpcAutoAnalysis {
 				}
 				
 				// Check for new jobs at HCI
-				checkJobDirsOnHci();
+				if (dueIds == null || dueIds.contains(hciCheckKey)) {
+					checkJobDirsOnHci();
+					if (jobScheduler != null) {
+						if (hciJobDirsToCpToChpc.size() != 0) jobScheduler.scheduleSoon(hciCheckKey);
+						else jobScheduler.backOff(hciCheckKey, waitTime);
+					}
+				}
 
 				// Copy over new jobs and submit them to the slurm cluster
 				if (hciJobDirsToCpToChpc.size() !=0) {
@@ -91,10 +107,12 @@ public class ChpcAutoAnalysis {
 
 				// Loop or exit?
 				if (waitTime == 0) return;
-				Util.pl(printPrepend+ "Sleeping "+hoursToWait+" hrs...");
-				Thread.sleep(waitTime);
+				long sleepTime = waitTime;
+				if (jobScheduler != null) sleepTime = Math.max(60000, Math.min(waitTime, jobScheduler.fetchNextDueTime() - System.currentTimeMillis()));
+				Util.pl(printPrepend+ "Sleeping "+String.format("%.2f", sleepTime/3600000.0)+" hrs...");
+				Thread.sleep(sleepTime);
 				
-				emailAlive();
+				emailAlive(sleepTime/ 3600000.0);
 				
 			}
 
@@ -108,8 +126,8 @@ public class ChpcAutoAnalysis {
 	}
 	
 	/*Sends an email that service is alive every 24hrs*/
-	private void emailAlive() {
-		hoursPassed += hoursToWait;
+	private void emailAlive(double hoursSlept) {
+		hoursPassed += hoursSlept;
 		if (hoursPassed >= 24) {
 			hoursPassed = 0;
 			Util.pl("Emailing admin that daemon is running...");
@@ -362,10 +380,11 @@ public class ChpcAutoAnalysis {
 
 	private void checkJobDirsOnChpc() throws Exception {
 		Util.pl(printPrepend+ "Checking CHPC job directories for status messages...");
-		currentChpcJobDirs = Util.extractOnlyDirectories(chpcJobDirectory);
+		currentChpcJobDirs = jobDirs.listArray(chpcJobDirectory);
 		chpcJobDirsToReturn.clear();
+		fetchDueIds();
 		//check if no job dirs
-		if (currentChpcJobDirs == null) return;
+		if (currentChpcJobDirs.length == 0) return;
 		
 		// for each dir pull the files and check the status, 
 		// upon sbatching a QUEUED file is added to the job dir
@@ -373,25 +392,29 @@ public class ChpcAutoAnalysis {
 		
 		HashMap<String, File> fileNames = null;
 		for (File jobDir: currentChpcJobDirs) {
-			fileNames = Util.fetchNamesAndFiles(jobDir);
+			String name = jobDir.getName();
+			if (dueIds != null && dueIds.contains(name) == false) continue;
+			fileNames = jobFiles.listByName(jobDir);
 			
 			//ready for transfer back?
 			if (fileNames.containsKey("COMPLETE")) {
 				chpcJobDirsToReturn.add(jobDir);
 				Util.pl("\tCOMPLETE ->\t"+jobDir);
+				schedule(name, true, 0);
 			}
 			
-			//failed job add to error messages and leave in place
+			//failed job add to error messages and leave in place, reported again daily
 			else if (fileNames.containsKey("FAILED")) {
 				String error = "FAILED ->\t"+jobDir;
 				errorMessages.add(error);
 				Util.pl("\t"+error);
+				schedule(name, false, 24l * 3600000l);
 			}
 			
 			//job started, check in slurm list of jobs
 			else if (fileNames.containsKey("STARTED")) {
 				//find the slurm-6485303.out file(s) should be just one!
-				File[] slurms = Util.extractFilesPrefix(jobDir, "slurm-");
+				File[] slurms = slurmFiles.listArray(jobDir);
 				String error = null;
 				if (slurms.length == 0) error = "ERROR: job STARTED but failed to find a slurm-xxx.out file, see -> "+jobDir;
 				else if (slurms.length > 1) error = "ERROR: more than one slurm-xxx.out files in -> "+jobDir;
@@ -404,13 +427,17 @@ public class ChpcAutoAnalysis {
 							error = "ERROR: job STARTED, found "+slurms[0].getName()+" file but JOBID is not in slurm queue , see -> "+jobDir;
 						}
 						//OK its still running
-						else Util.pl("\tRUNNING ->\t"+ currentSlurmJobIdTime.get(id)+"\t"+jobDir);
+						else {
+							Util.pl("\tRUNNING ->\t"+ currentSlurmJobIdTime.get(id)+"\t"+jobDir);
+							schedule(name, true, 0);
+						}
 					}
 					else throw new Exception("ERROR pulling the slurm job ID from "+slurms[0].getName());
 				}
 				if (error != null) {
 					errorMessages.add(error);
 					Util.pl("\t"+error);
+					schedule(name, false, waitTime);
 				}
 			}
 			
@@ -422,6 +449,7 @@ public class ChpcAutoAnalysis {
 					Util.pl("\t"+error);
 				}
 				else if (verbose) Util.pl("\tQUEUED ->\t"+jobDir);
+				schedule(name, false, waitTime);
 			}
 			
 			//something is wrong, no status message
@@ -429,10 +457,35 @@ public class ChpcAutoAnalysis {
 				String error = "ERROR: no job status message, see -> "+jobDir;
 				errorMessages.add(error);
 				Util.pl("\t"+error);
+				schedule(name, false, waitTime);
 			}
 		}
 		
 	}
+	
+	/**Tracks the current job dirs and the HCI check in the jobScheduler and pulls those due this cycle, new job dirs are due
+	 * right away. Leaves the dueIds null, so everything is checked, if the activeCheckMinutes is 0.*/
+	private void fetchDueIds() {
+		if (activeCheckMinutes <= 0) return;
+		if (jobScheduler == null) jobScheduler = new RequestScheduler(Math.round(activeCheckMinutes * 60000.0));
+		HashSet<String> names = new HashSet<String>();
+		names.add(hciCheckKey);
+		jobScheduler.track(hciCheckKey, null);
+		for (File jobDir: currentChpcJobDirs) {
+			names.add(jobDir.getName());
+			jobScheduler.track(jobDir.getName(), null);
+		}
+		jobScheduler.retain(names);
+		dueIds = new HashSet<String>(jobScheduler.pollDue(System.currentTimeMillis()));
+		if (verbose) Util.pl("\tJob scheduler: "+jobScheduler.fetchAndResetStats());
+	}
+	
+	/**Checks running and returning jobs again after the activeCheckMinutes, backs off the rest up to the maxIntervalMillis.*/
+	private void schedule(String jobName, boolean active, long maxIntervalMillis) {
+		if (jobScheduler == null) return;
+		if (active) jobScheduler.scheduleSoon(jobName);
+		else jobScheduler.backOff(jobName, maxIntervalMillis);
+	}
 
 	private void checkSlurmQueue() throws IOException {
 		Util.pl(printPrepend+ "Checking slurm jobs...");
@@ -556,11 +609,15 @@ public class ChpcAutoAnalysis {
 		if (configSettings.containsKey("hciUserNameIp") == false) Util.printErrAndExit("\nError: failed to find the 'hciUserNameIp' key in "+ configFile);
 		hciUserNameIp = configSettings.get("hciUserNameIp");
 		
+		//per job check cadence, optional, minutes between checks of running jobs, the rest back off, 0 checks all every hoursToWait
+		if (configSettings.containsKey("activeCheckMinutes")) activeCheckMinutes = Double.parseDouble(configSettings.get("activeCheckMinutes"));
+		
 		
 		//print out settings
 		Util.pl("Config Settings..."+
 				"\n  adminEmail\t"+ adminEmail+
 				"\n  hoursToWait\t"+ hoursToWait+
+				"\n  activeCheckMinutes\t"+ activeCheckMinutes+
 				"\n  verbose\t"+verbose+
 				"\n  dryRun\t"+dryRun+
 				
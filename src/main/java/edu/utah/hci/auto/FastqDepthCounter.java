@@ -0,0 +1,293 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**Streams whole fastq.gz files to count the reads and bases per sample before the jobs go to CHPC. Plain gzip files are inflated
+ * concurrently, one per task. BGZF files (bgzip, samtools, many demux tools) are made of independent blocks so a single file is
+ * split into batches of blocks that are inflated in parallel. Each batch counts the new lines and the bytes on each of the 4 fastq line
+ * phases relative to its start, the batches are then stitched in order to find the sequence line bytes. Ora files are skipped.
+ *
+ * Pool tasks never wait on other pool tasks, BGZF files are read by the calling thread which hands the block batches to the pool.*/
+public class FastqDepthCounter {
+
+	private static final int blocksPerBatch = 64;
+
+	//fields
+	private ExecutorService pool = null;
+	private int maxBatchesInFlight = 0;
+
+	public FastqDepthCounter(int numberThreads) {
+		maxBatchesInFlight = numberThreads * 2;
+		pool = Executors.newFixedThreadPool(numberThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				//don't hold the jvm open
+				Thread t = new Thread(r, "FastqDepthCounter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**Counts the reads and bases of one sample's fastqs, R1 and R2 reads are tallied separately for the parity check.*/
+	public SampleDepth countSample(String sampleId, List<File> fastqs) throws IOException {
+		SampleDepth sd = new SampleDepth(sampleId);
+		ArrayList<File> counted = new ArrayList<File>();
+		ArrayList<File> bgzf = new ArrayList<File>();
+		ArrayList<Future<long[]>> plain = new ArrayList<Future<long[]>>();
+		ArrayList<long[]> results = new ArrayList<long[]>();
+		try {
+			//hand the plain gzips to the pool first so they run while the BGZFs are split here
+			for (final File f: fastqs) {
+				if (f.getName().endsWith(".ora")) sd.numberOraFiles++;
+				else if (isBgzf(f)) bgzf.add(f);
+				else {
+					counted.add(f);
+					plain.add(pool.submit(new Callable<long[]>() {
+						public long[] call() throws IOException {
+							return countStream(f);
+						}
+					}));
+				}
+			}
+			for (Future<long[]> fu: plain) results.add(fu.get());
+			for (File f: bgzf) {
+				counted.add(f);
+				results.add(countBgzf(f));
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted counting "+sampleId);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed counting the fastqs for "+sampleId+" "+e.getCause().getMessage(), e.getCause());
+		} finally {
+			for (Future<long[]> fu: plain) fu.cancel(true);
+		}
+
+		for (int i=0; i< counted.size(); i++) {
+			long[] r = results.get(i);
+			if (r[0] % 4 != 0) throw new IOException("Truncated fastq, "+r[0]+" lines is not divisible by 4, "+counted.get(i));
+			long reads = r[0]/4;
+			sd.reads += reads;
+			sd.bases += r[1];
+			String name = counted.get(i).getName();
+			if (name.contains("_R1_")) sd.r1Reads += reads;
+			else if (name.contains("_R2_")) sd.r2Reads += reads;
+		}
+		return sd;
+	}
+
+	/**Returns {lines, sequence line bytes}.*/
+	static long[] countStream(File f) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(f), 65536);
+		PhaseCounts pc = new PhaseCounts();
+		byte[] buffer = new byte[1024*1024];
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1) pc.add(buffer, n);
+		} finally {
+			in.close();
+		}
+		if (pc.lastByte != '\n' && pc.lastByte != -1) pc.newLines++;
+		return new long[] {pc.newLines, pc.phaseBytes[1]};
+	}
+
+	/**Reads the compressed blocks on this thread, inflates and counts batches of them in the pool, then stitches the phases in order.
+	 * Only a few batches per thread are held in memory at once.*/
+	private long[] countBgzf(File f) throws IOException, InterruptedException, ExecutionException {
+		ArrayDeque<Future<PhaseCounts>> batches = new ArrayDeque<Future<PhaseCounts>>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1024*1024));
+		long[] linesBases = new long[2];
+		byte[] lastByte = new byte[] {-1};
+		try {
+			ArrayList<byte[]> blocks = new ArrayList<byte[]>();
+			byte[] block;
+			while ((block = readBgzfBlock(in)) != null) {
+				blocks.add(block);
+				if (blocks.size() == blocksPerBatch) {
+					if (batches.size() >= maxBatchesInFlight) stitch(batches.poll().get(), linesBases, lastByte);
+					batches.add(pool.submit(new BatchInflater(blocks)));
+					blocks = new ArrayList<byte[]>();
+				}
+			}
+			if (blocks.size() != 0) batches.add(pool.submit(new BatchInflater(blocks)));
+			while (batches.size() != 0) stitch(batches.poll().get(), linesBases, lastByte);
+			if (lastByte[0] != '\n' && lastByte[0] != -1) linesBases[0]++;
+			return linesBases;
+		} finally {
+			in.close();
+			for (Future<PhaseCounts> fu: batches) fu.cancel(true);
+		}
+	}
+
+	/**Adds the next batch in file order. A byte on local phase p is on global phase (lines + p) % 4, sequence lines are global phase 1.*/
+	private static void stitch(PhaseCounts pc, long[] linesBases, byte[] lastByte) {
+		if (pc.lastByte == -1) return;
+		int offset = (int)(linesBases[0] % 4);
+		linesBases[1] += pc.phaseBytes[(5 - offset) % 4];
+		linesBases[0] += pc.newLines;
+		lastByte[0] = pc.lastByte;
+	}
+
+	/**True if the first member has the BGZF 'BC' extra subfield.*/
+	static boolean isBgzf(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			byte[] h = new byte[16];
+			in.readFully(h);
+			return (h[0] & 0xff) == 31 && (h[1] & 0xff) == 139 && (h[3] & 4) != 0 && h[12] == 'B' && h[13] == 'C';
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**Returns the raw deflate payload of the next block with its 4 byte uncompressed size appended, null at the end.*/
+	private static byte[] readBgzfBlock(DataInputStream in) throws IOException {
+		byte[] header = new byte[12];
+		int first = in.read();
+		if (first == -1) return null;
+		header[0] = (byte)first;
+		in.readFully(header, 1, 11);
+		if ((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || (header[3] & 4) == 0) throw new IOException("Not a BGZF block");
+		int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+		byte[] extra = new byte[xlen];
+		in.readFully(extra);
+		int bsize = -1;
+		for (int i=0; i+4 <= xlen; ) {
+			int slen = (extra[i+2] & 0xff) | (extra[i+3] & 0xff) << 8;
+			if (extra[i] == 'B' && extra[i+1] == 'C' && slen == 2) bsize = (extra[i+4] & 0xff) | (extra[i+5] & 0xff) << 8;
+			i += 4 + slen;
+		}
+		if (bsize == -1) throw new IOException("BGZF block is missing its BC size");
+		//total block size minus header, extra, crc and isize
+		byte[] payload = new byte[bsize + 1 - 12 - xlen - 8];
+		in.readFully(payload);
+		byte[] trailer = new byte[8];
+		in.readFully(trailer);
+		byte[] toReturn = new byte[payload.length + 4];
+		System.arraycopy(payload, 0, toReturn, 0, payload.length);
+		System.arraycopy(trailer, 4, toReturn, payload.length, 4);
+		return toReturn;
+	}
+
+	/**Inflates a batch of BGZF blocks and counts them as one run of bytes.*/
+	private static class BatchInflater implements Callable<PhaseCounts> {
+		private ArrayList<byte[]> blocks;
+
+		BatchInflater(ArrayList<byte[]> blocks) {
+			this.blocks = blocks;
+		}
+
+		public PhaseCounts call() throws DataFormatException {
+			PhaseCounts pc = new PhaseCounts();
+			Inflater inflater = new Inflater(true);
+			byte[] out = new byte[65536];
+			try {
+				for (byte[] b: blocks) {
+					int isize = (b[b.length-4] & 0xff) | (b[b.length-3] & 0xff) << 8 | (b[b.length-2] & 0xff) << 16 | (b[b.length-1] & 0xff) << 24;
+					inflater.reset();
+					inflater.setInput(b, 0, b.length-4);
+					int total = 0;
+					while (total < isize) {
+						int n = inflater.inflate(out);
+						if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+						pc.add(out, n);
+						total += n;
+					}
+					if (total != isize) throw new DataFormatException("BGZF block inflated to "+total+" bytes, expected "+isize);
+				}
+			} finally {
+				inflater.end();
+			}
+			return pc;
+		}
+	}
+
+	/**New lines and the non new line bytes on each line phase, relative to the start of the run.*/
+	private static class PhaseCounts {
+		long newLines = 0;
+		long[] phaseBytes = new long[4];
+		byte lastByte = -1;
+
+		void add(byte[] b, int n) {
+			int phase = (int)(newLines & 3);
+			long count = 0;
+			for (int i=0; i< n; i++) {
+				if (b[i] == '\n') {
+					phaseBytes[phase] += count;
+					count = 0;
+					newLines++;
+					phase = (phase + 1) & 3;
+				}
+				else if (b[i] != '\r') count++;
+			}
+			phaseBytes[phase] += count;
+			if (n != 0) lastByte = b[n-1];
+		}
+	}
+
+	/**Reads and bases for one sample.*/
+	public static class SampleDepth {
+		private String sampleId;
+		private long reads = 0;
+		private long bases = 0;
+		private long r1Reads = 0;
+		private long r2Reads = 0;
+		private int numberOraFiles = 0;
+
+		SampleDepth(String sampleId) {
+			this.sampleId = sampleId;
+		}
+
+		/**Single end or R1 and R2 with the same number of reads.*/
+		public boolean isParityOK() {
+			return r2Reads == 0 || r1Reads == r2Reads;
+		}
+
+		public String getSampleId() {
+			return sampleId;
+		}
+
+		public long getReads() {
+			return reads;
+		}
+
+		public long getBases() {
+			return bases;
+		}
+
+		public long getR1Reads() {
+			return r1Reads;
+		}
+
+		public long getR2Reads() {
+			return r2Reads;
+		}
+
+		public int getNumberOraFiles() {
+			return numberOraFiles;
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
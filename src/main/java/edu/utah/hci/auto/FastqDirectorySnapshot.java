@@ -0,0 +1,168 @@
+package edu.utah.hci.auto;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+
+/**Names, sizes, and last modified times of a request's Fastq directory read in one DirectoryStream pass, one attribute read per entry.
+ * GNomExRequest keeps it for the cycle so the md5, extension, age, and date checks don't go back to the NFS Repository.*/
+public class FastqDirectorySnapshot {
+
+	//fields
+	private File directory = null;
+	private boolean exists = false;
+	private String[] names = new String[0];
+	private long[] sizes = new long[0];
+	private long[] lastModified = new long[0];
+	private boolean[] isDirectory = new boolean[0];
+
+	private FastqDirectorySnapshot(File directory) {
+		this.directory = directory;
+	}
+
+	/**Lists the directory, a missing one gives an empty snapshot with exists() false.*/
+	public static FastqDirectorySnapshot scan(File directory) throws IOException {
+		FastqDirectorySnapshot s = new FastqDirectorySnapshot(directory);
+		ArrayList<String> n = new ArrayList<String>();
+		ArrayList<BasicFileAttributes> a = new ArrayList<BasicFileAttributes>();
+		DirectoryStream<Path> ds = null;
+		try {
+			ds = Files.newDirectoryStream(directory.toPath());
+			for (Path p: ds) {
+				try {
+					a.add(Files.readAttributes(p, BasicFileAttributes.class));
+					n.add(p.getFileName().toString());
+				} catch (NoSuchFileException e) {
+					//deleted while listing or a dead link
+				}
+			}
+		} catch (NoSuchFileException e) {
+			return s;
+		} finally {
+			if (ds != null) ds.close();
+		}
+		s.exists = true;
+		int num = n.size();
+		s.names = new String[num];
+		s.sizes = new long[num];
+		s.lastModified = new long[num];
+		s.isDirectory = new boolean[num];
+		for (int i=0; i< num; i++) {
+			BasicFileAttributes att = a.get(i);
+			s.names[i] = n.get(i);
+			s.sizes[i] = att.size();
+			s.lastModified[i] = att.lastModifiedTime().toMillis();
+			s.isDirectory[i] = att.isDirectory();
+		}
+		return s;
+	}
+
+	/**Writes the snapshot for the RepositoryFastqIndex.*/
+	void write(DataOutputStream out) throws IOException {
+		out.writeUTF(directory.getPath());
+		out.writeBoolean(exists);
+		out.writeInt(names.length);
+		for (int i=0; i< names.length; i++) {
+			out.writeUTF(names[i]);
+			out.writeLong(sizes[i]);
+			out.writeLong(lastModified[i]);
+			out.writeBoolean(isDirectory[i]);
+		}
+	}
+
+	/**Reads a snapshot saved with write().*/
+	static FastqDirectorySnapshot read(DataInputStream in) throws IOException {
+		FastqDirectorySnapshot s = new FastqDirectorySnapshot(new File(in.readUTF()));
+		s.exists = in.readBoolean();
+		int num = in.readInt();
+		s.names = new String[num];
+		s.sizes = new long[num];
+		s.lastModified = new long[num];
+		s.isDirectory = new boolean[num];
+		for (int i=0; i< num; i++) {
+			s.names[i] = in.readUTF();
+			s.sizes[i] = in.readLong();
+			s.lastModified[i] = in.readLong();
+			s.isDirectory[i] = in.readBoolean();
+		}
+		return s;
+	}
+
+	/**Most recent last modified time of any entry, 0 if none.*/
+	public long fetchNewestModified() {
+		long newest = 0;
+		for (long t: lastModified) if (t > newest) newest = t;
+		return newest;
+	}
+
+	/**True if a non hidden entry contains the text, e.g. md5.*/
+	public boolean containsName(String text) {
+		for (String name: names) if (name.startsWith(".") == false && name.contains(text)) return true;
+		return false;
+	}
+
+	/**Indexes of the files ending with the suffix, case insensitive.*/
+	private ArrayList<Integer> fetchIndexes(String suffix) {
+		ArrayList<Integer> toReturn = new ArrayList<Integer>();
+		String s = suffix.toLowerCase();
+		for (int i=0; i< names.length; i++) {
+			if (isDirectory[i] == false && names[i].toLowerCase().endsWith(s)) toReturn.add(i);
+		}
+		return toReturn;
+	}
+
+	/**Files ending with any of the suffixes, case insensitive, grouped in suffix order.*/
+	public File[] fetchFiles(String... suffixes) {
+		ArrayList<File> files = new ArrayList<File>();
+		for (String suffix: suffixes) {
+			for (Integer i: fetchIndexes(suffix)) files.add(new File(directory, names[i]));
+		}
+		File[] toReturn = new File[files.size()];
+		files.toArray(toReturn);
+		return toReturn;
+	}
+
+	/**Most recent last modified time of the files ending with any of the suffixes, 0 if none.*/
+	public long fetchNewestModified(String... suffixes) {
+		long newest = 0;
+		for (String suffix: suffixes) {
+			for (Integer i: fetchIndexes(suffix)) if (lastModified[i] > newest) newest = lastModified[i];
+		}
+		return newest;
+	}
+
+	/**Total size of the files ending with any of the suffixes.*/
+	public long fetchTotalSize(String... suffixes) {
+		long total = 0;
+		for (String suffix: suffixes) {
+			for (Integer i: fetchIndexes(suffix)) total += sizes[i];
+		}
+		return total;
+	}
+
+	/**Total size of every entry, for the SealedRequestIndex fingerprint.*/
+	public long fetchTotalEntrySize() {
+		long total = 0;
+		for (long size: sizes) total += size;
+		return total;
+	}
+
+	public boolean exists() {
+		return exists;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getNumberEntries() {
+		return names.length;
+	}
+}
@@ -0,0 +1,165 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**Immutable parse of an Illumina demux fastq name, done once per file with indexOf, no regex or split.
+ *
+ * 21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L001_R1_001.fastq.gz
+ * 26155X1_20250425_LH00227_0152_A22Y7LTLT3_S17_L002_R-interleaved_001.fastq.ora
+ * sampleId_runDate_instrument_run_flowcell_sampleNumber_lane_read_chunk.format
+ *
+ * The first 5 fields are taken from the front and the last 4 from the back so extra fields in the middle don't shift them.
+ * Fields that aren't present are null.*/
+public class FastqName {
+
+	private final File file;
+	private final String name;
+	private final String sampleId;
+	private final String runDate;
+	private final String instrument;
+	private final String run;
+	private final String flowcell;
+	private final String sampleNumber;
+	private final String lane;
+	private final String read;
+	private final String chunk;
+	private final String format;
+	//end of the flowcell field, -1 if fewer than 5 fields
+	private final int runPrefixEnd;
+
+	public FastqName(File file) {
+		this.file = file;
+		name = file.getName();
+
+		//format is everything after the first . in the last field, e.g. fastq.gz
+		int lastUnderscore = name.lastIndexOf('_');
+		int dot = name.indexOf('.', lastUnderscore + 1);
+		int end = dot == -1 ? name.length() : dot;
+		format = dot == -1 ? null : name.substring(dot + 1);
+
+		//fields before the extension
+		ArrayList<int[]> fields = new ArrayList<int[]>(9);
+		int start = 0;
+		for (int i=0; i< end; i++) {
+			if (name.charAt(i) == '_') {
+				fields.add(new int[] {start, i});
+				start = i + 1;
+			}
+		}
+		fields.add(new int[] {start, end});
+		int n = fields.size();
+
+		//sample ID is everything before the first _ like the prior split, the whole name if none
+		sampleId = n == 1 ? name : field(fields, 0);
+		runDate = n >= 9 ? field(fields, 1) : null;
+		instrument = n >= 9 ? field(fields, 2) : null;
+		run = n >= 9 ? field(fields, 3) : null;
+		flowcell = n >= 9 ? field(fields, 4) : null;
+		runPrefixEnd = n >= 5 ? fields.get(4)[1] : -1;
+		sampleNumber = n >= 9 ? field(fields, n-4) : null;
+		lane = n >= 9 ? field(fields, n-3) : null;
+		read = n >= 3 ? field(fields, n-2) : null;
+		chunk = n >= 2 ? field(fields, n-1) : null;
+	}
+
+	private String field(ArrayList<int[]> fields, int index) {
+		int[] se = fields.get(index);
+		return name.substring(se[0], se[1]);
+	}
+
+	/**Groups the fastqs by sample ID, sorted by ID.*/
+	public static TreeMap<String, ArrayList<FastqName>> indexBySample(File[] fastqs) {
+		TreeMap<String, ArrayList<FastqName>> index = new TreeMap<String, ArrayList<FastqName>>();
+		for (File f: fastqs) {
+			FastqName fn = new FastqName(f);
+			ArrayList<FastqName> al = index.get(fn.sampleId);
+			if (al == null) {
+				al = new ArrayList<FastqName>();
+				index.put(fn.sampleId, al);
+			}
+			al.add(fn);
+		}
+		return index;
+	}
+
+	public static ArrayList<File> toFiles(ArrayList<FastqName> names) {
+		ArrayList<File> files = new ArrayList<File>(names.size());
+		for (FastqName fn: names) files.add(fn.file);
+		return files;
+	}
+
+	/**sampleId_runDate_instrument_run_flowcell, what CellRanger calls the sample name, or null if fewer than 5 fields.*/
+	public String getRunPrefix() {
+		return runPrefixEnd == -1 ? null : name.substring(0, runPrefixEnd);
+	}
+
+	public boolean isR1() {
+		return "R1".equals(read);
+	}
+
+	public boolean isR2() {
+		return "R2".equals(read);
+	}
+
+	public boolean isInterleaved() {
+		return "R-interleaved".equals(read);
+	}
+
+	public boolean isOra() {
+		return name.endsWith(".ora");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getSampleId() {
+		return sampleId;
+	}
+
+	public String getRunDate() {
+		return runDate;
+	}
+
+	public String getInstrument() {
+		return instrument;
+	}
+
+	public String getRun() {
+		return run;
+	}
+
+	public String getFlowcell() {
+		return flowcell;
+	}
+
+	public String getSampleNumber() {
+		return sampleNumber;
+	}
+
+	public String getLane() {
+		return lane;
+	}
+
+	public String getRead() {
+		return read;
+	}
+
+	public String getChunk() {
+		return chunk;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
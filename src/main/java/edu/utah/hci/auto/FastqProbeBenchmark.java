@@ -0,0 +1,59 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+
+/**Times the fastq.gz read depth probe, the old Util.fetchBufferedReader() readLine() loop vs Util.countLines(), over the given files.
+ * Point it at real NovaSeq/ NovaSeqX Repository fastqs, each probe is warmed up then the best of the rounds reported.
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.FastqProbeBenchmark maxLines rounds file1.fastq.gz file2.fastq.gz ...*/
+public class FastqProbeBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) Util.printErrAndExit("Usage: FastqProbeBenchmark maxLines rounds fastq.gz [fastq.gz...]");
+		int maxLines = Integer.parseInt(args[0]);
+		int rounds = Integer.parseInt(args[1]);
+		File[] fastqs = new File[args.length-2];
+		for (int i=2; i< args.length; i++) fastqs[i-2] = new File(args[i]);
+
+		//check they agree
+		long totalLines = 0;
+		long totalBytes = 0;
+		for (File f: fastqs) {
+			Util.LineProbe probe = Util.countLines(f, maxLines);
+			long reader = countWithReader(f, maxLines);
+			if (probe.getLines() != reader) Util.printErrAndExit("ERROR: "+f+" probe "+probe.getLines()+" != reader "+reader);
+			totalLines += probe.getLines();
+			totalBytes += probe.getBytesInflated();
+		}
+		Util.pl(fastqs.length+" files, "+totalLines+" lines, "+totalBytes+" bytes inflated, best of "+rounds+" rounds");
+
+		for (int mode=0; mode< 2; mode++) {
+			long best = Long.MAX_VALUE;
+			//first round is warm up
+			for (int r=0; r<= rounds; r++) {
+				long start = System.nanoTime();
+				for (File f: fastqs) {
+					if (mode == 0) countWithReader(f, maxLines);
+					else Util.countLines(f, maxLines);
+				}
+				long time = System.nanoTime() - start;
+				if (r != 0 && time < best) best = time;
+			}
+			Util.pl((mode == 0 ? "reader" : "probe")+"\t"+(best/1000000)+" ms\t"+String.format("%.1f", (double)best/1000.0/fastqs.length)+" us/file");
+		}
+	}
+
+	/**The original readLine() loop.*/
+	private static long countWithReader(File f, int maxLines) throws IOException {
+		int lineCount = 0;
+		BufferedReader in = Util.fetchBufferedReader(f);
+		while (in.readLine() !=null) {
+			lineCount++;
+			if (lineCount >= maxLines) break;
+		}
+		in.close();
+		return lineCount;
+	}
+}
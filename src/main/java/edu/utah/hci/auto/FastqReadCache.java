@@ -0,0 +1,108 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**Persistent record of how many lines were seen in each fastq.gz, up to the minimum needed, so a Repository fastq is only decompressed
+ * once across cycles and restarts. Keyed by canonical path, an entry is only used if the size and last modified time still match,
+ * otherwise it is recounted. Entries for fastqs that no longer exist are dropped once a day. Thread safe.
+ *
+ * File: canonicalPath size lastModified linesSeen reachedEnd(1/0), tab delimited*/
+public class FastqReadCache {
+
+	private static final long sweepInterval = 24l * 3600000l;
+
+	//fields
+	private File cacheFile = null;
+	private HashMap<String, long[]> entries = new HashMap<String, long[]>();
+	private boolean dirty = false;
+	private long lastSweep = 0;
+	private int hits = 0;
+	private int misses = 0;
+
+	/**Loads the cacheFile if it exists, a corrupt one is just ignored.*/
+	public FastqReadCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+		if (cacheFile.exists() == false) return;
+		try {
+			BufferedReader in = Util.fetchBufferedReader(cacheFile);
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = Util.TAB.split(line);
+				if (f.length != 5) continue;
+				entries.put(f[0], new long[] {Long.parseLong(f[1]), Long.parseLong(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4])});
+			}
+			in.close();
+			Util.pl("\tLoaded "+entries.size()+" fastq read counts from "+cacheFile);
+		} catch (Exception e) {
+			Util.el("WARNING: failed to load the fastq read cache "+cacheFile+", starting empty. "+e.getMessage());
+			entries.clear();
+		}
+	}
+
+	/**Returns true if the fastq has at least minimumLines, counting it only if not cached or changed.*/
+	public boolean hasSufficientReads(File fastq, int minimumLines) throws IOException {
+		String path = fastq.getCanonicalPath();
+		long size = fastq.length();
+		long lastModified = fastq.lastModified();
+		synchronized (this) {
+			long[] e = entries.get(path);
+			//a count that stopped early at a lower minimum can't answer a higher one
+			if (e != null && e[0] == size && e[1] == lastModified && (e[2] >= minimumLines || e[3] == 1)) {
+				hits++;
+				return e[2] >= minimumLines;
+			}
+			misses++;
+		}
+		long lines = countLines(fastq, minimumLines);
+		synchronized (this) {
+			entries.put(path, new long[] {size, lastModified, lines, lines < minimumLines ? 1 : 0});
+			dirty = true;
+		}
+		return lines >= minimumLines;
+	}
+
+	/**Counts lines up to the max.*/
+	static long countLines(File fastq, int max) throws IOException {
+		return Util.countLines(fastq, max).getLines();
+	}
+
+	/**Writes the cache if anything changed, via a tmp file and rename. Drops entries for missing or changed fastqs once a day.*/
+	public synchronized void save() throws IOException {
+		if (System.currentTimeMillis() - lastSweep > sweepInterval) {
+			lastSweep = System.currentTimeMillis();
+			Iterator<String> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				String path = it.next();
+				File f = new File(path);
+				long[] e = entries.get(path);
+				if (f.exists() == false || f.length() != e[0] || f.lastModified() != e[1]) {
+					it.remove();
+					dirty = true;
+				}
+			}
+		}
+		if (dirty == false) return;
+		File tmp = new File(cacheFile.getParentFile(), "tmp_"+cacheFile.getName());
+		PrintWriter out = new PrintWriter(tmp);
+		for (String path: entries.keySet()) {
+			long[] e = entries.get(path);
+			out.println(path+"\t"+e[0]+"\t"+e[1]+"\t"+e[2]+"\t"+e[3]);
+		}
+		out.close();
+		if (tmp.renameTo(cacheFile) == false) throw new IOException("Failed to rename "+tmp+" to "+cacheFile);
+		dirty = false;
+	}
+
+	/**Hit and miss counts since the last call, for the cycle log.*/
+	public synchronized String fetchAndResetStats() {
+		String s = hits+" hits, "+misses+" misses, "+entries.size()+" cached";
+		hits = 0;
+		misses = 0;
+		return s;
+	}
+}
@@ -0,0 +1,159 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**Directory listing for both daemons on NIO. Filters are set once, name filters run before any attribute read so entries that don't
+ * match are never stat'ed, and the type check reads the attributes once. Nothing is canonicalized and results are only sorted if asked.
+ * A maxDepth of 1 lists just the directory with a DirectoryStream, deeper walks use walkFileTree and follow links like File.listFiles().
+ *
+ * Make one per call site and reuse it, e.g. private static final FileSystemScanner jobDirs = new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null);*/
+public class FileSystemScanner {
+
+	public static final int FILES = 1;
+	public static final int DIRECTORIES = 2;
+	public static final int ALL = 3;
+
+	//fields
+	private int type = ALL;
+	private String prefix = null;
+	private String suffix = null;
+	private boolean ignoreCase = false;
+	private Pattern pattern = null;
+	private boolean skipHidden = true;
+	private boolean sort = false;
+	private int maxDepth = 1;
+
+	/**Type is FILES, DIRECTORIES, or ALL, the prefix and suffix may be null.*/
+	public FileSystemScanner(int type, String prefix, String suffix) {
+		this.type = type;
+		this.prefix = prefix;
+		this.suffix = suffix;
+	}
+
+	/**Lists the matching entries, an empty list if the directory doesn't exist.*/
+	public ArrayList<File> list(File directory) throws IOException {
+		final ArrayList<File> matches = new ArrayList<File>();
+		if (maxDepth <= 1) {
+			DirectoryStream<Path> ds = null;
+			try {
+				ds = Files.newDirectoryStream(directory.toPath());
+				for (Path p: ds) {
+					if (matchesName(p.getFileName().toString()) && matchesType(p, null)) matches.add(p.toFile());
+				}
+			} catch (NoSuchFileException e) {
+				return matches;
+			} finally {
+				if (ds != null) ds.close();
+			}
+		}
+		else {
+			if (directory.exists() == false) return matches;
+			final Path root = directory.toPath();
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth, new SimpleFileVisitor<Path>() {
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (dir.equals(root)) return FileVisitResult.CONTINUE;
+					String name = dir.getFileName().toString();
+					if (skipHidden && name.startsWith(".")) return FileVisitResult.SKIP_SUBTREE;
+					if (type != FILES && matchesName(name)) matches.add(dir.toFile());
+					return FileVisitResult.CONTINUE;
+				}
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					//at maxDepth directories come here too
+					if (attrs.isDirectory()) {
+						if (type != FILES && matchesName(file.getFileName().toString())) matches.add(file.toFile());
+					}
+					else if (type != DIRECTORIES && matchesName(file.getFileName().toString())) matches.add(file.toFile());
+					return FileVisitResult.CONTINUE;
+				}
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					//deleted mid walk or a dead link
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		if (sort) Collections.sort(matches);
+		return matches;
+	}
+
+	/**Same as list() but as an array.*/
+	public File[] listArray(File directory) throws IOException {
+		ArrayList<File> al = list(directory);
+		File[] toReturn = new File[al.size()];
+		al.toArray(toReturn);
+		return toReturn;
+	}
+
+	/**Matching entries keyed by name, with a deeper walk the last one seen wins.*/
+	public HashMap<String, File> listByName(File directory) throws IOException {
+		HashMap<String, File> toReturn = new HashMap<String, File>();
+		for (File f: list(directory)) toReturn.put(f.getName(), f);
+		return toReturn;
+	}
+
+	private boolean matchesName(String name) {
+		if (skipHidden && name.startsWith(".")) return false;
+		if (prefix != null && name.startsWith(prefix) == false) return false;
+		if (suffix != null) {
+			if (ignoreCase) {
+				if (name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length()) == false) return false;
+			}
+			else if (name.endsWith(suffix) == false) return false;
+		}
+		if (pattern != null && pattern.matcher(name).matches() == false) return false;
+		return true;
+	}
+
+	/**Only reads the attributes when the type matters, follows links like File.isDirectory().*/
+	private boolean matchesType(Path p, BasicFileAttributes attrs) {
+		if (type == ALL) return true;
+		try {
+			if (attrs == null) attrs = Files.readAttributes(p, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return false;
+		}
+		return attrs.isDirectory() ? type == DIRECTORIES : type == FILES;
+	}
+
+	/**Case insensitive suffix match.*/
+	public FileSystemScanner setIgnoreCase(boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		return this;
+	}
+
+	/**Precompiled pattern the whole name must match.*/
+	public FileSystemScanner setPattern(Pattern pattern) {
+		this.pattern = pattern;
+		return this;
+	}
+
+	/**Names starting with . are skipped by default.*/
+	public FileSystemScanner setSkipHidden(boolean skipHidden) {
+		this.skipHidden = skipHidden;
+		return this;
+	}
+
+	public FileSystemScanner setSort(boolean sort) {
+		this.sort = sort;
+		return this;
+	}
+
+	/**1 for just the directory, the default, Integer.MAX_VALUE for everything below it.*/
+	public FileSystemScanner setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+		return this;
+	}
+}
@@ -0,0 +1,144 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**Times the old File.listFiles() Util helpers against FileSystemScanner on a synthetic tree shaped like a Jobs dir,
+ * numberDirs job dirs each with filesPerDir files and one .sing, 1000 x 100 gives 10^5 entries. Each mode is warmed up then
+ * timed over several rounds, best round reported. Run it on the NFS Repository mount to see the stat savings, local disk hides most of it.
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.FileSystemScannerBenchmark workDirectory numberDirs filesPerDir rounds*/
+public class FileSystemScannerBenchmark {
+
+	private static final FileSystemScanner jobDirs = new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).setPattern(Pattern.compile("^\\w+.*")).setSort(true);
+	private static final FileSystemScanner jobFiles = new FileSystemScanner(FileSystemScanner.FILES, null, null);
+	private static final FileSystemScanner slurmFiles = new FileSystemScanner(FileSystemScanner.ALL, "slurm-", null);
+	private static final FileSystemScanner singFiles = new FileSystemScanner(FileSystemScanner.FILES, null, ".sing").setSkipHidden(false).setMaxDepth(Integer.MAX_VALUE);
+
+	public static void main(String[] args) throws IOException {
+		File workDir = new File(System.getProperty("java.io.tmpdir"), "FileSystemScannerBenchmark");
+		int numberDirs = 1000;
+		int filesPerDir = 100;
+		int rounds = 5;
+		if (args.length > 0) workDir = new File(args[0]);
+		if (args.length > 1) numberDirs = Integer.parseInt(args[1]);
+		if (args.length > 2) filesPerDir = Integer.parseInt(args[2]);
+		if (args.length > 3) rounds = Integer.parseInt(args[3]);
+		makeTree(workDir, numberDirs, filesPerDir);
+		Util.pl("Benchmarking "+numberDirs+" dirs x "+filesPerDir+" files in "+workDir+", best of "+rounds+" rounds");
+
+		for (int mode=0; mode< 2; mode++) {
+			long best = Long.MAX_VALUE;
+			int found = 0;
+			//first round is warm up
+			for (int r=0; r<= rounds; r++) {
+				long start = System.nanoTime();
+				found = mode == 0 ? scanOld(workDir) : scanNew(workDir);
+				long time = System.nanoTime() - start;
+				if (r != 0 && time < best) best = time;
+			}
+			Util.pl((mode == 0 ? "listFiles" : "scanner")+"\t"+(best/1000000)+" ms\t"+found+" found");
+		}
+	}
+
+	/**Same walk as ChpcAutoAnalysis.checkJobDirsOnChpc() plus the MultiQC .sing search.*/
+	private static int scanOld(File root) {
+		int found = 0;
+		File[] dirs = extractOnlyDirectories(root);
+		for (File d: dirs) {
+			HashMap<String, File> names = fetchNamesAndFiles(d);
+			if (names.containsKey("STARTED")) found += extractFilesPrefix(d, "slurm-").length;
+		}
+		found += fetchAllFilesRecursively(root, ".sing").size();
+		return found;
+	}
+
+	private static int scanNew(File root) throws IOException {
+		int found = 0;
+		File[] dirs = jobDirs.listArray(root);
+		for (File d: dirs) {
+			HashMap<String, File> names = jobFiles.listByName(d);
+			if (names.containsKey("STARTED")) found += slurmFiles.listArray(d).length;
+		}
+		found += singFiles.list(root).size();
+		return found;
+	}
+
+	private static void makeTree(File root, int numberDirs, int filesPerDir) throws IOException {
+		File marker = new File(root, ".tree_"+numberDirs+"_"+filesPerDir);
+		if (marker.exists()) return;
+		Util.deleteDirectory(root);
+		for (int i=0; i< numberDirs; i++) {
+			File d = new File(root, "1"+i+"X1");
+			if (d.mkdirs() == false) throw new IOException("Failed to make "+d);
+			new File(d, "STARTED").createNewFile();
+			new File(d, "slurm-"+(1000000+i)+".out").createNewFile();
+			new File(d, "dnaAlignQC.sing").createNewFile();
+			for (int j=3; j< filesPerDir; j++) new File(d, "file"+j+".txt").createNewFile();
+		}
+		marker.createNewFile();
+	}
+
+	//the Util helpers before FileSystemScanner
+
+	private static File[] extractOnlyDirectories(File directory){
+		if (directory.isDirectory() == false) return null;
+		File[] fileNames = directory.listFiles();
+		ArrayList<File> al = new ArrayList<File>();
+		Pattern pat = Pattern.compile("^\\w+.*");
+		Matcher mat;
+		for (int i=0; i< fileNames.length; i++)  {
+			if (fileNames[i].isDirectory() == false) continue;
+			mat = pat.matcher(fileNames[i].getName());
+			if (mat.matches()) al.add(fileNames[i]);
+		}
+		File[] files = new File[al.size()];
+		al.toArray(files);
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static HashMap<String, File> fetchNamesAndFiles(File directory){
+		HashMap<String, File> nameFile = new HashMap<String, File>();
+		try {
+			directory = directory.getCanonicalFile();
+			String path = directory.getCanonicalPath();
+			ArrayList<File> al = new ArrayList<File>();
+			for (String n: directory.list()) if (n.startsWith(".") == false) al.add(new File(path, n));
+			File[] files = new File[al.size()];
+			al.toArray(files);
+			Arrays.sort(files);
+			for (int i=0; i< files.length; i++){
+				if (files[i].isDirectory() == false) nameFile.put(files[i].getName(), files[i]);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return nameFile;
+	}
+
+	private static File[] extractFilesPrefix(File dir, String prefix){
+		ArrayList<File> toReturn = new ArrayList<File>();
+		for (File f: dir.listFiles()) {
+			if (f.getName().startsWith(prefix)) toReturn.add(f);
+		}
+		File[] matches = new File[toReturn.size()];
+		toReturn.toArray(matches);
+		return matches;
+	}
+
+	private static ArrayList<File> fetchAllFilesRecursively (File directory, String extension){
+		ArrayList<File> files = new ArrayList<File>();
+		File[] list = directory.listFiles();
+		for (int i=0; i< list.length; i++){
+			if (list[i].isDirectory()) files.addAll(fetchAllFilesRecursively (list[i], extension));
+			else if (list[i].getName().endsWith(extension)) files.add(list[i]);
+		}
+		return files;
+	}
+}
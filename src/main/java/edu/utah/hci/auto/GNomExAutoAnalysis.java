@@ -2,19 +2,27 @@ package edu.utah.hci.auto;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,6 +34,8 @@ import java.util.regex.Pattern;
  * Run on hci-deadhorse.hci.utah.edu
  * */
 public class GNomExAutoAnalysis {
+	
+	private static final FileSystemScanner singFileScanner = new FileSystemScanner(FileSystemScanner.FILES, null, ".sing").setSkipHidden(false).setMaxDepth(Integer.MAX_VALUE);
 
 	//config fields
 	private File configFile = null;
@@ -51,13 +61,20 @@ public class GNomExAutoAnalysis {
 	private String experimentRequestsToProc = null;
 	private String jiraApiCredentials = null;
 	private File sampleSpeciesFile = null;
+	private byte[] sampleSpeciesDigest = null;
+	private double hoursBetweenFullQueries = 24;
 	
 	//internal fields
 	//Date formatting, 2023-11-14 07:43:13.38
-	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-	private Calendar calendar = Calendar.getInstance();
+	//SimpleDateFormat isn't thread safe, one per triage thread
+	private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		}
+	};
 	private int numberRetriesForMultiQC = 2;
 	private HashMap<String, String[]> orgLibWorkflowDocs = null;
+	private HashMap<String, MultiQCFileList> orgLibMultiQCFileLists = null;
 	private double hoursPassed = 0;
 	private TreeSet<String> jobsProcessed = new TreeSet<String>();
 	private TreeMap<String, Integer> missingOrgLibPrep = new TreeMap<String, Integer>();
@@ -65,6 +82,46 @@ public class GNomExAutoAnalysis {
 	public static int minimumFastqFileLineCount = 4000;
 	private HashSet<String> idsWithJiraTickets = null;
 	private OraSpeciesMatcher oraSpeciesMatcher = null;
+	private GNomExRequestSource requestSource = null;
+	private String requestSourceType = "gnomexDb";
+	private File requestSourceFile = null;
+	private File sampleSourceFile = null;
+	private int syntheticRequests = 10000;
+	private int syntheticSamplesPerRequest = 4;
+	private File gnomExSnapshotFile = null;
+	private File fastqReadCacheFile = null;
+	private FastqReadCache fastqReadCache = null;
+	private int jobBuildThreads = 8;
+	private int triageThreads = 16;
+	private int multiQCThreads = 1;
+	private boolean warmMultiQCContainer = false;
+	private MultiQCContainer multiQCContainer = null;
+	private File experimentDir = null;
+	private boolean useqInProcess = false;
+	private double useqTimeoutMinutes = 60;
+	private UseqAppRunner jobCleanerRunner = null;
+	private UseqAppRunner aggregateQCRunner = null;
+	private int fastqDepthThreads = 0;
+	private FastqDepthCounter fastqDepthCounter = null;
+	private File repositoryIndexFile = null;
+	private RepositoryFastqIndex repositoryIndex = null;
+	private boolean watchRepository = false;
+	private double watchPollMinutes = 10;
+	private RepositoryWatcher repositoryWatcher = null;
+	private GNomExRequest[] cycleRequests = null;
+	//just those parsed in the last full cycle, the rest keep their watches
+	private GNomExRequest[] cycleDueRequests = null;
+	private boolean cycleDegraded = false;
+	//only requests this new are watched for Fastq, older ones wait for the full cycles
+	private static final long maxDaysToWatchRequest = 90;
+	private double activeCheckMinutes = 10;
+	private RequestScheduler requestScheduler = null;
+	private HashMap<String, String> missingOrgLibById = new HashMap<String, String>();
+	private File sealedRequestIndexFile = null;
+	private SealedRequestIndex sealedRequests = null;
+	private GNomExSnapshot gnomExSnapshot = null;
+	private GNomExConnectionManager connectionManager = null;
+	private int dbQueryTimeoutSeconds = 600;
 	
 	//Requests split by status
 	private ArrayList<GNomExRequest> grsToBuildAutoAnalysis = new ArrayList<GNomExRequest>();
@@ -72,46 +129,90 @@ public class GNomExAutoAnalysis {
 	private ArrayList<GNomExRequest> grsSkipped = new ArrayList<GNomExRequest>();
 	private ArrayList<GNomExRequest> grsRequestingAnalysisAssistance = new ArrayList<GNomExRequest>();
 	private ArrayList<GNomExRequest> grsToMultiQC = new ArrayList<GNomExRequest>();
+	private HashSet<String> idsWaitingOnFastq = new HashSet<String>();
+	private HashSet<String> idsArchived = new HashSet<String>();
+	private HashSet<String> idsRunning = new HashSet<String>();
+	private HashSet<String> idsComplete = new HashSet<String>();
+	private HashSet<String> idsMultiQCFailed = new HashSet<String>();
 	private ArrayList<String> errorMessages = new ArrayList<String>();
 
 	public GNomExAutoAnalysis (String[] args) {
+		this(args, true);
+	}
+	
+	/**Set runDaemon to false to just load the configuration, e.g. for the AutoAnalysisBenchmark.*/
+	GNomExAutoAnalysis (String[] args, boolean runDaemon) {
 		try {
 
 			processArgs(args);
+			if (runDaemon == false) return;
 
 			while (true) {
 				Util.pl("\n########### "+ Util.getDateTime()+ " ###########");
 				
 				// Query the GNomEx DB for experiment requests
 				Util.pl("\nChecking the GNomEx db...");
-				GNomExDbQuery dbQuery = new GNomExDbQuery(connectionUrl, verbose);
-				if (dbQuery.isFailed()) throw new Exception("ERROR with querying the GNomEx DB");
-				
-				// Save sample species for demux ORA compression
-				parseSampleSpecies(dbQuery.getSamples());
-
-				// Find new requests ready for analysis, find existing analysis jobs and check their status
-				parseRequests(dbQuery.getRequests());
-
-				// Build new AutoAnalysis Jobs
-				buildAutoAnalysisJobs();
-
-				// Check the existing AutoAnalysis (AutoAnalysis/22597R_27Dec2023) and it's sub job directories (AutoAnalysis/22597R_27Dec2023/22597X4)
-				checkExistingAutoAnalysis();
-
-				// Run MultiQC and delete the symlinked AutoAnalysis jobs
-				runMultiQCEmailClients();
-				
-				createJiraTickets();
+				requestSource.query();
+				if (requestSource.isFailed()) {
+					boolean haveSnapshot = gnomExSnapshot != null && gnomExSnapshot.query();
+					// single runs without a snapshot fail hard, the daemon reports it and waits, the connection manager backs off repeat failures
+					if (haveSnapshot == false && hoursToWait == 0) throw new Exception("ERROR with querying the GNomEx DB: "+requestSource.getErrorMessage());
+					emailDbFailure();
+					
+					// Degraded mode, keep completed jobs flowing to clients using the last good query, no new jobs, species file, or jira tickets
+					if (haveSnapshot) {
+						Util.pl("\nRunning the completion checks from the GNomEx snapshot...");
+						cycleRequests = gnomExSnapshot.getRequests();
+						cycleDegraded = true;
+						GNomExRequest[] due = fetchDueRequests(cycleRequests);
+						cycleDueRequests = due;
+						parseRequests(due);
+						checkExistingAutoAnalysis();
+						runMultiQCEmailClients();
+						scheduleRequests(due);
+					}
+				}
+				else {
+					saveSnapshot();
+					
+					// Save sample species for demux ORA compression
+					parseSampleSpecies(requestSource.getSamples());
+
+					// Find new requests ready for analysis, find existing analysis jobs and check their status
+					// Only those due for a check, new and active requests every few minutes, settled ones back off
+					cycleRequests = requestSource.getRequests();
+					cycleDegraded = false;
+					GNomExRequest[] due = fetchDueRequests(cycleRequests);
+					cycleDueRequests = due;
+					parseRequests(due);
+
+					// Build new AutoAnalysis Jobs
+					buildAutoAnalysisJobs();
+
+					// Check the existing AutoAnalysis (AutoAnalysis/22597R_27Dec2023) and it's sub job directories (AutoAnalysis/22597R_27Dec2023/22597X4)
+					checkExistingAutoAnalysis();
+
+					// Run MultiQC and delete the symlinked AutoAnalysis jobs
+					runMultiQCEmailClients();
+					scheduleRequests(due);
+
+					createJiraTickets();
+				}
 
 				// Loop or exit?
 				if (hoursToWait == 0) return;
-				Util.pl("Sleeping "+hoursToWait+" hrs ...");
-				Thread.sleep(waitTime);
+				long sleepStart = System.currentTimeMillis();
+				long sleepTime = fetchSleepTime();
+				//nothing to watch until a query or snapshot gives the requests, e.g. the first query failed
+				if (watchRepository && cycleRequests != null) runChangedRequestCycles(sleepTime);
+				else {
+					Util.pl("Sleeping "+String.format("%.2f", sleepTime/3600000.0)+" hrs ...");
+					Thread.sleep(sleepTime);
+				}
 				
 				clearPriorArrays();
 				
-				emailAlive();
+				emailAlive((System.currentTimeMillis() - sleepStart)/ 3600000.0);
 
 			}
 
@@ -122,31 +223,80 @@ public class GNomExAutoAnalysis {
 		}
 	}
 	
+	/**Runs the request source, parsing, job building, and checking stages of one cycle without MultiQC, jira, or emails
+	 * and prints the time spent in each. Used by the AutoAnalysisBenchmark.*/
+	void runTimedCycle() throws Exception {
+		clearPriorArrays();
+		long start = System.currentTimeMillis();
+		if (requestSource.query() == false) throw new Exception("ERROR with the request source: "+requestSource.getErrorMessage());
+		long queried = System.currentTimeMillis();
+		parseSampleSpecies(requestSource.getSamples());
+		long species = System.currentTimeMillis();
+		parseRequests(requestSource.getRequests());
+		long parsed = System.currentTimeMillis();
+		buildAutoAnalysisJobs();
+		long built = System.currentTimeMillis();
+		checkExistingAutoAnalysis();
+		long checked = System.currentTimeMillis();
+		Util.pl("\nStage\tMillis\n"+
+				"query\t"+(queried-start)+"\n"+
+				"parseSampleSpecies\t"+(species-queried)+"\n"+
+				"parseRequests\t"+(parsed-species)+"\n"+
+				"buildAutoAnalysisJobs\t"+(built-parsed)+"\n"+
+				"checkExistingAutoAnalysis\t"+(checked-built)+"\n"+
+				"total\t"+(checked-start)+"\n"+
+				"\n"+requestSource.getRequests().length+" requests, "+grsToBuildAutoAnalysis.size()+" built, "+grsWithAutoAnalysis.size()+
+				" with AutoAnalysis, "+grsToMultiQC.size()+" ready for MultiQC, "+grsSkipped.size()+" skipped");
+	}
+
+	GNomExRequestSource getRequestSource() {
+		return requestSource;
+	}
+
 	private void parseSampleSpecies(GNomExSample[] samples) throws Exception{
 		Util.pl("Parsing Sample Species for ORA...");
 		
-		//set ora species in samples
-		String currGSpecies = "";
-		String currOSpecies = "";
-		for (GNomExSample s: samples) {
-			if (s.getSpecies().equals(currGSpecies) == false) {
-				currGSpecies = s.getSpecies();
-				currOSpecies = oraSpeciesMatcher.fetchOraSpecies(currGSpecies);
+		//set ora species in samples, the matcher memoizes each organism
+		for (GNomExSample s: samples) s.setOraSpecies(oraSpeciesMatcher.fetchOraSpecies(s.getSpecies()));
+		
+		//sort by sample ID for the index and so the content is stable across cycles
+		GNomExSample[] sorted = Arrays.copyOf(samples, samples.length);
+		Arrays.sort(sorted, new Comparator<GNomExSample>() {
+			public int compare(GNomExSample a, GNomExSample b) {
+				return a.getSampleId().compareTo(b.getSampleId());
 			}
-			s.setOraSpecies(currOSpecies);
+		});
+		StringBuilder sb = new StringBuilder("#ExperimentID\tSampleID\tSpecies\tOraCompress\tOraCompressionSpecies\tLastModifiedDate\n");
+		for (GNomExSample s: sorted) {
+			sb.append(s.toString());
+			sb.append("\n");
+		}
+		byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+		
+		//skip the rewrite if nothing changed, on startup compare against what's on disk
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+		if (sampleSpeciesDigest == null && sampleSpeciesFile.exists()) {
+			sampleSpeciesDigest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(sampleSpeciesFile.toPath()));
 		}
+		File indexFile = new File(sampleSpeciesFile.getParent(), sampleSpeciesFile.getName()+".idx");
+		if (MessageDigest.isEqual(digest, sampleSpeciesDigest) && indexFile.exists()) {
+			Util.pl("\tNo changes, "+sorted.length+" samples");
+			return;
+		}
+		
+		//index first so it is never older than the text file
+		SampleSpeciesIndex.write(indexFile, sorted);
 		
 		//write out new tmp sample file
 		File tmpSamples = new File(sampleSpeciesFile.getParent(), "tmp_"+sampleSpeciesFile.getName());
-		PrintWriter out = new PrintWriter( new FileWriter(tmpSamples));
-		out.println("#ExperimentID\tSampleID\tSpecies\tOraCompress\tOraCompressionSpecies\tLastModifiedDate");
-		for (GNomExSample s: samples) out.println(s.toString());
-		out.close();
+		Files.write(tmpSamples.toPath(), content);
 		//copy it to the real location
 		if (tmpSamples.renameTo(sampleSpeciesFile) == false) {
 			throw new Exception("Error: failed to copy tmp sample species file "+tmpSamples+" to "+sampleSpeciesFile);
 		}
 		sampleSpeciesFile.setReadable(true);
+		sampleSpeciesDigest = digest;
+		Util.pl("\tWrote "+sorted.length+" samples");
 	}
 
 	private void createJiraTickets() throws Exception{
@@ -206,8 +356,8 @@ public class GNomExAutoAnalysis {
 	}
 
 	/*Sends an email that service is alive every 24hrs*/
-	private void emailAlive() {
-		hoursPassed += hoursToWait;
+	private void emailAlive(double hoursSlept) {
+		hoursPassed += hoursSlept;
 		if (hoursPassed >= 24) {
 			hoursPassed = 0;
 			Util.pl("Emailing admin that daemon is running...");
@@ -226,8 +376,140 @@ public class GNomExAutoAnalysis {
 		grsSkipped.clear();
 		grsRequestingAnalysisAssistance.clear();
 		grsToMultiQC.clear();
+		idsWaitingOnFastq.clear();
+		idsArchived.clear();
+		idsRunning.clear();
+		idsComplete.clear();
+		idsMultiQCFailed.clear();
 		errorMessages.clear();
 	}
+	
+	/**Returns the requests due for a check from the RequestScheduler, new requests and those with a new lastModifyDate are due
+	 * right away. All of them if the activeCheckMinutes is 0.*/
+	private GNomExRequest[] fetchDueRequests(GNomExRequest[] requests) {
+		if (activeCheckMinutes <= 0) return requests;
+		if (requestScheduler == null) requestScheduler = new RequestScheduler(Math.round(activeCheckMinutes * 60000.0));
+		HashSet<String> ids = new HashSet<String>();
+		for (GNomExRequest r: requests) {
+			requestScheduler.track(r.getOriginalRequestId(), r.getLastModifyDate());
+			ids.add(r.getOriginalRequestId());
+		}
+		requestScheduler.retain(ids);
+		HashSet<String> due = new HashSet<String>(requestScheduler.pollDue(System.currentTimeMillis()));
+		ArrayList<GNomExRequest> al = new ArrayList<GNomExRequest>();
+		for (GNomExRequest r: requests) if (due.contains(r.getOriginalRequestId())) al.add(r);
+		Util.pl("\tRequest scheduler: "+requestScheduler.fetchAndResetStats());
+		GNomExRequest[] toReturn = new GNomExRequest[al.size()];
+		al.toArray(toReturn);
+		return toReturn;
+	}
+	
+	/**Sets each checked request's next check from what this pass found. Building, running, and requests with fastq from the last
+	 * day are checked again after the activeCheckMinutes, COMPLETE ones back off to daily, archived ones drop out, and the rest back
+	 * off to the hoursToWait.*/
+	private void scheduleRequests(GNomExRequest[] checked) {
+		if (requestScheduler == null) return;
+		HashSet<String> soon = new HashSet<String>(idsRunning);
+		for (GNomExRequest r: grsToBuildAutoAnalysis) soon.add(r.getRequestIdCleaned());
+		HashSet<String> done = new HashSet<String>(idsComplete);
+		for (GNomExRequest r: grsToMultiQC) done.add(r.getRequestIdCleaned());
+		done.removeAll(idsMultiQCFailed);
+		long recent = System.currentTimeMillis() - 24l * 3600000l;
+		for (GNomExRequest r: checked) {
+			String id = r.getRequestIdCleaned();
+			String key = r.getOriginalRequestId();
+			if (idsArchived.contains(id)) requestScheduler.drop(key);
+			else if (soon.contains(id)) requestScheduler.scheduleSoon(key);
+			else if (idsWaitingOnFastq.contains(id) && r.fetchNewestFastqTime() > recent) requestScheduler.scheduleSoon(key);
+			else if (done.contains(id)) requestScheduler.backOff(key, 24l * 3600000l);
+			else requestScheduler.backOff(key, waitTime);
+		}
+	}
+	
+	/**Time until the next request is due, at most the hoursToWait and at least a minute.*/
+	private long fetchSleepTime() {
+		if (requestScheduler == null) return waitTime;
+		long untilDue = requestScheduler.fetchNextDueTime() - System.currentTimeMillis();
+		return Math.max(60000, Math.min(waitTime, untilDue));
+	}
+	
+	/**Until the next full cycle, waits on the RepositoryWatcher and runs the parse, build, check, and MultiQC stages on just the
+	 * requests from the last GNomEx query whose dirs changed. No db query, species file, or jira tickets, the full cycle does those.*/
+	private void runChangedRequestCycles(long watchTime) throws Exception {
+		long end = System.currentTimeMillis() + watchTime;
+		Util.pl("Watching the Repository for "+String.format("%.2f", watchTime/3600000.0)+" hrs ...");
+		if (repositoryWatcher == null) repositoryWatcher = new RepositoryWatcher(hciLinkDirectory, watchPollMinutes);
+		updateWatches(cycleDueRequests);
+		
+		while (true) {
+			long remaining = end - System.currentTimeMillis();
+			if (remaining <= 0) return;
+			TreeSet<String> changed = repositoryWatcher.awaitChanges(remaining);
+			if (changed.size() == 0) continue;
+			
+			//new request dirs and jobs of requests not in the last query wait for the next full cycle
+			ArrayList<GNomExRequest> toProcess = new ArrayList<GNomExRequest>();
+			for (GNomExRequest r: cycleRequests) if (changed.contains(r.getRequestIdCleaned())) toProcess.add(r);
+			Util.pl("\n########### "+ Util.getDateTime()+ " Repository changes "+changed+" ###########");
+			if (toProcess.size() == 0) continue;
+			GNomExRequest[] requests = new GNomExRequest[toProcess.size()];
+			toProcess.toArray(requests);
+			
+			clearPriorArrays();
+			parseRequests(requests);
+			if (cycleDegraded == false) buildAutoAnalysisJobs();
+			checkExistingAutoAnalysis();
+			runMultiQCEmailClients();
+			scheduleRequests(requests);
+			updateWatches(requests);
+			Util.pl("\tRepository watcher: "+repositoryWatcher.fetchAndResetStats());
+		}
+	}
+	
+	/**Watches the active year dirs and the requests that were just parsed and are waiting on Fastq, unwatches the other parsed ones,
+	 * requests not parsed keep their watches, jobs are watched through the hciLinkDirectory. Requests with fastqs too new to pass the one hour age check are rechecked once they are old enough.*/
+	private void updateWatches(GNomExRequest[] requests) throws Exception {
+		int year = Calendar.getInstance().get(Calendar.YEAR);
+		for (int i=0; i< 2; i++) {
+			File yearDir = experimentalSubDirs.get(Integer.toString(year - i));
+			if (yearDir != null) repositoryWatcher.watchYearDirectory(yearDir);
+		}
+		long now = System.currentTimeMillis();
+		long oldest = now - maxDaysToWatchRequest * 24l * 3600000l;
+		for (GNomExRequest r: requests) {
+			String id = r.getRequestIdCleaned();
+			if (idsWaitingOnFastq.contains(id) == false || dateFormat.get().parse(r.getCreationDate()).getTime() < oldest) {
+				repositoryWatcher.unwatchRequest(id);
+				continue;
+			}
+			repositoryWatcher.watchRequest(id, r.getRequestDirectory());
+			long newest = r.fetchNewestFastqTime();
+			if (newest > now - 3600000) repositoryWatcher.recheckAt(id, newest + 3600000 + 60000);
+		}
+	}
+
+	/*Saves the last good GNomEx db query for degraded mode cycles and warm restarts*/
+	private void saveSnapshot() {
+		if (gnomExSnapshot == null) return;
+		GNomExDbQuery dbQuery = (GNomExDbQuery)requestSource;
+		long watermark = -1;
+		if (dbQuery.getWatermark() != null) watermark = dbQuery.getWatermark().getTime();
+		try {
+			GNomExSnapshot.save(gnomExSnapshotFile, dbQuery.getRequests(), dbQuery.getSamples(), dbQuery.getLastFullQueryTime(), watermark);
+		} catch (IOException e) {
+			//not fatal, just means no fallback
+			Util.pl("WARNING: failed to save the GNomEx snapshot "+gnomExSnapshotFile+" "+e.getMessage());
+		}
+	}
+
+	/*Alerts the admin that this cycle was skipped, the daemon stays up*/
+	private void emailDbFailure() {
+		String error = "ERROR with querying the GNomEx DB, skipping new jobs this cycle.\n"+requestSource.getErrorMessage();
+		if (connectionManager != null) error = error+ "\n"+connectionManager.getConsecutiveFailures()+
+				" consecutive failures, next attempt after "+new java.util.Date(connectionManager.getCircuitOpenUntil());
+		Util.pl(error);
+		Util.sendMuttEmail("GNomExAutoAnalysis DB ERROR", adminEmail, error);
+	}
 
 	private void emailErrorMessage(String error, Exception e) {
 		Util.pl("Emailing error messages...");
@@ -236,19 +518,84 @@ public class GNomExAutoAnalysis {
 		Util.sendMuttEmail(subject, adminEmail, body);
 	}
 	
+	/**Runs MultiQC, AggregateQCStats2, and JobCleaner on the requests whose jobs are all complete, each on its own worker so a slow or
+	 * failing request doesn't hold up the rest. The client is emailed as each request finishes, a request that fails after its retries
+	 * emails the admin, has its partial MultiQC output removed, and is checked again on the next back off.*/
 	private void runMultiQCEmailClients() throws IOException {
 		// Any jobs?
 		if (grsToMultiQC.size() ==0) return;
 		
+		Util.pl("\nRunning MultiQC and JobCleaner on "+grsToMultiQC.size()+" requests...");
+		long start = System.currentTimeMillis();
 		
-		Util.pl("\nRunning MultiQC and JobCleaner...");
-		for (GNomExRequest gr: grsToMultiQC) {
-			
+		//one container for all of the reports, started or health checked here, falls back to a docker run per report
+		if (warmMultiQCContainer) {
+			if (multiQCContainer == null) multiQCContainer = new MultiQCContainer(experimentDir, new File(System.getProperty("user.dir")));
+			multiQCContainer.ensureRunning();
+		}
+		
+		//load the USeq apps into this JVM once, the JVM wide exit trap only goes in after both load, falls back to a java -jar per request
+		if (useqInProcess && jobCleanerRunner == null) {
+			try {
+				aggregateQCRunner = new UseqAppRunner(useqAggregateQCStats2, useqTimeoutMinutes);
+				jobCleanerRunner = new UseqAppRunner(useqJobCleaner, useqTimeoutMinutes);
+			} catch (IOException e) {
+				Util.pl("WARNING: failed to load the USeq apps in process, running them with java -jar. "+e.getMessage());
+			}
+			if (jobCleanerRunner == null || UseqAppRunner.installTrap() == false) {
+				if (aggregateQCRunner != null) aggregateQCRunner.close();
+				if (jobCleanerRunner != null) jobCleanerRunner.close();
+				aggregateQCRunner = null;
+				jobCleanerRunner = null;
+				useqInProcess = false;
+			}
+		}
+		ExecutorService workers = null;
+		if (multiQCThreads > 1 && grsToMultiQC.size() > 1) workers = Executors.newFixedThreadPool(Math.min(multiQCThreads, grsToMultiQC.size()));
+		ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		try {
+			for (final GNomExRequest gr: grsToMultiQC) {
+				Callable<Boolean> c = new Callable<Boolean>() {
+					public Boolean call() {
+						return runMultiQCEmailClient(gr);
+					}
+				};
+				if (workers != null) results.add(workers.submit(c));
+				else {
+					FutureTask<Boolean> ft = new FutureTask<Boolean>(c);
+					ft.run();
+					results.add(ft);
+				}
+			}
+			for (int i=0; i< results.size(); i++) {
+				try {
+					if (results.get(i).get() == false) idsMultiQCFailed.add(grsToMultiQC.get(i).getRequestIdCleaned());
+				} catch (ExecutionException e) {
+					//runMultiQCEmailClient catches its own
+					idsMultiQCFailed.add(grsToMultiQC.get(i).getRequestIdCleaned());
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while running MultiQC", e);
+				}
+			}
+		} finally {
+			if (workers != null) workers.shutdown();
+		}
+		Util.pl("\t"+(grsToMultiQC.size()-idsMultiQCFailed.size())+" complete, "+idsMultiQCFailed.size()+" failed, "+
+				String.format("%.1f", (System.currentTimeMillis()-start)/60000.0)+" min");
+		if (multiQCContainer != null) Util.pl("\tMultiQC container: "+multiQCContainer.fetchAndResetStats());
+	}
+	
+	/**Runs the MultiQC, AggregateQCStats2, and JobCleaner script for one request on a worker and emails the client. Returns false
+	 * on failure after emailing the admin, never throws so the other requests keep going.*/
+	private boolean runMultiQCEmailClient(GNomExRequest gr) {
+		long start = System.currentTimeMillis();
+		String name = gr.getRequestIdCleaned();
+		File fileList = null;
+		try {
 			// AutoAnalysis_22Dec2023
 			if (verbose) Util.pl("\t"+gr.getAutoAnalysisMainDirectory());
 			String alignDir = gr.getAutoAnalysisMainDirectory().getCanonicalPath();
 			String jobsDir = gr.getAutoAnalysisJobsDirectory().getCanonicalPath();
-			String name = gr.getRequestIdCleaned();
 			
 			// See if there are any additional multiQC options
 			String orgLib = gr.getOrganism()+"_"+Util.WHITE_SPACE.matcher(gr.getLibraryPreparation()).replaceAll("");
@@ -260,38 +607,104 @@ public class GNomExAutoAnalysis {
 			
 			if (opts.toLowerCase().equals("none")) opts = "";
 			
+			// Just the workflow's QC files if it has input patterns, otherwise MultiQC searches the whole Jobs dir
+			String input = jobsDir;
+			MultiQCFileList mfl = orgLibMultiQCFileLists.get(orgLib);
+			if (mfl != null) {
+				fileList = new File(alignDir, "multiQCFileList.txt");
+				int numFiles = mfl.write(new File(jobsDir), fileList);
+				if (numFiles != 0) input = "--file-list "+fileList.getPath();
+				else Util.pl("WARNING: no files in "+jobsDir+" matched the MultiQC input patterns '"+mfl.getPatterns()+"', running MultiQC on the Jobs dir");
+				if (verbose) Util.pl("\t\t"+numFiles+" MultiQC input files");
+			}
+			
 			// Current working directory, needed for multi qc config files if present
 			String workingDir = new File( System.getProperty("user.dir")).getCanonicalPath();
 			
 			StringBuilder sb = new StringBuilder();
 			// set to exit upon fail
 			sb.append("set -e\n");
-			// docker multiqc
-			sb.append("docker run --rm --user $(id -u):$(id -g) -v "+alignDir+":"+alignDir+" -v "+workingDir+":"+workingDir+
-					" ewels/multiqc multiqc "+opts+" --outdir "+alignDir+"/MultiQC --title "+name+
-					" --filename "+name+"_MultiQCReport.html "+jobsDir+"\n");
+			// docker multiqc, exec'ed in the warm container if it's up
+			String multiqc = "multiqc "+opts+" --outdir "+alignDir+"/MultiQC --title "+name+" --filename "+name+"_MultiQCReport.html "+input+"\n";
+			if (multiQCContainer != null && multiQCContainer.canRun(alignDir)) sb.append(multiQCContainer.fetchExecCommand()+" "+multiqc);
+			else sb.append("docker run --rm --user $(id -u):$(id -g) -v "+alignDir+":"+alignDir+" -v "+workingDir+":"+workingDir+
+					" "+MultiQCContainer.image+" "+multiqc);
 
 			// CellRanger ATAC is not supported by the cellranger module so don't use it!
 			
 			// dnaAlign?
 			// fetch all of the sing files these will contain the name of the workflow, e.g. dnaAlignQC.sing
-			ArrayList<File> singFiles = Util.fetchAllFilesRecursively(new File(jobsDir), ".sing");
+			ArrayList<File> singFiles = singFileScanner.list(new File(jobsDir));
 			if (singFiles.size()==0) throw new IOException("ERROR: failed to fetch any xxx.sing files from "+jobsDir);
-			if (singFiles.get(0).getName().startsWith("dnaAlignQC")) {
-				sb.append("java -jar -Xmx5G "+useqAggregateQCStats2.getCanonicalPath()+" -j "+
-						jobsDir+" -s "+alignDir+"/AggQC -a '.+CutAdapt.log' -r '.+UniObRC.json.gz' \n");
-			}
+			boolean dnaAlign = singFiles.get(0).getName().startsWith("dnaAlignQC");
 			
-			// small file cleanup
-			sb.append("java -jar -Xmx5G "+useqJobCleaner.getCanonicalPath()+" -n 'Logs,RunScripts' -m -r "+
-					jobsDir+" -e 'COMPLETE,.tbi,.crai,.bai'\n");
+			// USeq apps in the script unless they're loaded in this JVM and haven't hung
+			boolean inJvm = jobCleanerRunner != null && jobCleanerRunner.isUsable() && aggregateQCRunner.isUsable();
+			if (inJvm == false) {
+				if (dnaAlign) {
+					sb.append("java -jar -Xmx5G "+useqAggregateQCStats2.getCanonicalPath()+" -j "+
+							jobsDir+" -s "+alignDir+"/AggQC -a '.+CutAdapt.log' -r '.+UniObRC.json.gz' \n");
+				}
+
+				// small file cleanup
+				sb.append("java -jar -Xmx5G "+useqJobCleaner.getCanonicalPath()+" -n 'Logs,RunScripts' -m -r "+
+						jobsDir+" -e 'COMPLETE,.tbi,.crai,.bai'\n");
+			}
 			
 			//run it, will retry
 			CommandRunner cr = new CommandRunner (numberRetriesForMultiQC, verbose, gr.getAutoAnalysisMainDirectory(), new String[] {sb.toString()});
 			if (cr.isFailed()) throw new IOException(cr.getErrorMessage());
 			
+			if (inJvm) {
+				if (dnaAlign) runUseqApp(aggregateQCRunner, gr.getAutoAnalysisMainDirectory(), "-j", jobsDir, "-s", alignDir+"/AggQC", "-a", ".+CutAdapt.log", "-r", ".+UniObRC.json.gz");
+				runUseqApp(jobCleanerRunner, gr.getAutoAnalysisMainDirectory(), "-n", "Logs,RunScripts", "-m", "-r", jobsDir, "-e", "COMPLETE,.tbi,.crai,.bai");
+			}
+			
 			//email client that data is ready
 			emailClient(gr);
+			Util.pl("\t"+name+"\tMultiQC complete, "+String.format("%.1f", (System.currentTimeMillis()-start)/60000.0)+" min");
+			return true;
+			
+		} catch (Exception e) {
+			//a partial MultiQC dir would pass the COMPLETE check, remove it so the request is run again
+			File mqc = new File (gr.getAutoAnalysisMainDirectory(), "MultiQC");
+			if (mqc.exists()) Util.deleteDirectory(mqc);
+			//a dead container fails every report, check it so the rest use docker run
+			if (multiQCContainer != null) multiQCContainer.recheckHealth();
+			Util.pl("\t"+name+"\tMultiQC FAILED, "+String.format("%.1f", (System.currentTimeMillis()-start)/60000.0)+" min");
+			emailErrorMessage("ERROR: MultiQC or JobCleaner failed for "+name+" in "+gr.getAutoAnalysisMainDirectory()+
+					", will retry on its next check.\n", e);
+			return false;
+		} finally {
+			if (fileList != null) fileList.delete();
+		}
+	}
+
+	/**Calls the in process USeq app, retrying like the CommandRunner. Once the app has timed out, it and later calls go back to
+	 * java -jar, a hung app would otherwise hold up every request behind it.*/
+	private void runUseqApp(UseqAppRunner runner, File scriptDir, String... args) throws Exception {
+		for (int i=0; ; i++) {
+			if (runner.isUsable() == false) {
+				StringBuilder sb = new StringBuilder("java -jar -Xmx5G "+runner.getJar().getCanonicalPath());
+				for (String a: args) sb.append(" '"+a+"'");
+				CommandRunner cr = new CommandRunner (numberRetriesForMultiQC, verbose, scriptDir, new String[] {sb.toString()});
+				if (cr.isFailed()) throw new IOException(cr.getErrorMessage());
+				return;
+			}
+			try {
+				String output = runner.run(args);
+				if (verbose) Util.pl(output);
+				return;
+			} catch (IOException e) {
+				if (runner.isUsable() == false) {
+					//just the call that timed out, the others were waiting on it
+					if (e.getMessage().startsWith("ERROR: timed out")) Util.pl("WARNING: "+runner.getJar().getName()+" timed out in process, running it with java -jar from now on");
+					continue;
+				}
+				if (i >= numberRetriesForMultiQC) throw e;
+				if (verbose) Util.pl(e.getMessage()+"\nWaiting 5 min and retrying:");
+				Thread.sleep(1000*60*5);
+			}
 		}
 	}
 
@@ -325,7 +738,9 @@ public class GNomExAutoAnalysis {
 			//any Fastq? Might be archived
 			boolean fastqOK = gr.checkFastq();
 			if (fastqOK == false) {
-				if (verbose) Util.pl("\t\tFastq check failed, archived? leaving as COMPLETE\t"+ oldAADir);
+				if (gr.isFastqMissing()) idsArchived.add(gr.getRequestIdCleaned());
+				else idsWaitingOnFastq.add(gr.getRequestIdCleaned());
+				if (verbose) Util.pl("\t\tFastq check failed, archived, too new, or no md5? leaving as COMPLETE\t"+ oldAADir);
 			}
 			else {
 
@@ -345,7 +760,7 @@ public class GNomExAutoAnalysis {
 						File toCheck = null;
 						if (complete.exists()) toCheck = complete;
 						else toCheck = mqc;
-						boolean dateCheck = checkFastqDates( toCheck, gr.getFastqFiles());
+						boolean dateCheck = gr.fetchNewestFastqTime() <= toCheck.lastModified();
 						
 						if (numFastqSamples > 0 && (numJobs != numFastqSamples || dateCheck == false)) {
 
@@ -354,9 +769,14 @@ public class GNomExAutoAnalysis {
 							File dep = new File (oldAADir.getParentFile(), "Depreciated_"+oldAADir.getName());
 							boolean renamed = oldAADir.renameTo(dep);
 							if (renamed == false) throw new IOException("FAILED to rename "+oldAADir.getName()+" to "+dep.getName());
+							idsRunning.add(gr.getRequestIdCleaned());
 						}
 						
-						else if (verbose) Util.pl("\tCOMPLETE\t"+ oldAADir);
+						else {
+							idsComplete.add(gr.getRequestIdCleaned());
+							sealedRequests.seal(gr.getRequestIdCleaned(), oldAADir, gr.getFastqSnapshot());
+							if (verbose) Util.pl("\tCOMPLETE, sealing\t"+ oldAADir);
+						}
 					}
 					else if (verbose) Util.pl("\tFastq or Jobs check failed so leave COMPLETE\t"+ oldAADir);
 
@@ -378,6 +798,7 @@ public class GNomExAutoAnalysis {
 					//the only jobs copied back will have a COMPLETE, otherwise they are waiting on CHPC
 					if (comp.exists() == false) {
 						allComplete = false; 
+						idsRunning.add(gr.getRequestIdCleaned());
 						if (verbose) Util.pl("\t\tWAITING ON\t"+jobDir.getName());
 					}
 					else if (verbose) Util.pl("\t\tCOMPLETE\t"+jobDir.getName());
@@ -399,15 +820,17 @@ public class GNomExAutoAnalysis {
 				}
 			}
 		}
+		saveSealedRequests();
 	}
 
-	/**Checks if any of the files in the array are newer than the complete file.*/
-	private boolean checkFastqDates(File complete, File[] fastqFiles) {
-		long ctime = complete.lastModified();
-		for (File f: fastqFiles) {		
-			if (f.lastModified()> ctime) return false;
+	private void saveSealedRequests() {
+		try {
+			sealedRequests.save();
+		} catch (IOException e) {
+			//not fatal, unsaved seals are just checked in full again
+			Util.pl("WARNING: failed to save the sealed request index "+sealedRequestIndexFile+" "+e.getMessage());
 		}
-		return true;
+		Util.pl("\tSealed requests: "+sealedRequests.fetchAndResetStats());
 	}
 
 	private void buildAutoAnalysisJobs() throws IOException {
@@ -415,111 +838,103 @@ public class GNomExAutoAnalysis {
 		if (grsToBuildAutoAnalysis.size() ==0) return;
 		Util.pl("\nBuilding new AutoAnalysis jobs...");
 		
-		for (GNomExRequest r: grsToBuildAutoAnalysis) {
-			boolean created = r.createAutoAnalysisJobs(hciLinkDirectory);
-			if (created == false) throw new IOException("Failed to create a AutoAnalysis job for "+r.getRequestIdCleaned());
-			//some samples may get skipped for lack of sufficient read depth
-			if (r.getErrorMessages()!= null && verbose) Util.pl("\tNon- fatal errors observed:\t"+r.getErrorMessages());
+		//load prior fastq read counts
+		if (fastqReadCache == null) fastqReadCache = new FastqReadCache(fastqReadCacheFile);
+		
+		//bounded pool for validating and linking the samples of each request, NFS bound so more than the cores can help
+		ExecutorService workers = null;
+		if (jobBuildThreads > 1) workers = Executors.newFixedThreadPool(jobBuildThreads);
+		
+		//full depth counting, off unless threads are set
+		if (fastqDepthThreads > 0 && fastqDepthCounter == null) fastqDepthCounter = new FastqDepthCounter(fastqDepthThreads);
+		
+		try {
+			for (GNomExRequest r: grsToBuildAutoAnalysis) {
+				boolean created = r.createAutoAnalysisJobs(hciLinkDirectory, fastqReadCache, workers, fastqDepthCounter);
+				if (created == false) throw new IOException("Failed to create a AutoAnalysis job for "+r.getRequestIdCleaned());
+				//some samples may get skipped for lack of sufficient read depth
+				if (r.getErrorMessages()!= null && verbose) Util.pl("\tNon- fatal errors observed:\t"+r.getErrorMessages());
+			}
+		} finally {
+			if (workers != null) workers.shutdown();
+			//keep what was counted even if a build failed
+			fastqReadCache.save();
+			Util.pl("\tFastq read cache: "+fastqReadCache.fetchAndResetStats());
 		}
 	}
 
+	/**Sorts the requests into the status arrays. May be just some of the cycle's requests, e.g. those due or with Repository changes,
+	 * so missing org lib preps are tracked per request and reported across all of them.*/
 	private void parseRequests(GNomExRequest[] requests) throws Exception {
 		Util.pl("\nParsing GNomExRequests...");
-
-		boolean test = experimentRequestsToProc.toLowerCase().equals("all") == false;
-		TreeMap<String, Integer> molp = new TreeMap<String, Integer>();
 		
-		for (GNomExRequest r: requests) {
-			
-			if (test) {
-				if (r.getRequestIdCleaned().equals(experimentRequestsToProc) == false) continue;
-				else Util.pl("\nTest ExperimentRequest:\n"+r+"\n");
-			}
-			else if (verbose) Util.pl("\tSummary:\t"+r.simpleToString());
+		//load the prior Repository listings and sealed COMPLETE requests
+		if (repositoryIndex == null) repositoryIndex = new RepositoryFastqIndex(repositoryIndexFile);
+		if (sealedRequests == null) sealedRequests = new SealedRequestIndex(sealedRequestIndexFile);
 
-			//do they want any help? the DB query should prevent any of this type of request, so this should be redundant
-			if (r.isAutoAnalyze() == false && r.isRequestBioinfoAssistance() == false) {
-				if (verbose) Util.pl("\tNo help or analysis requested");
-				grsSkipped.add(r);
-				continue;
+		final boolean test = experimentRequestsToProc.toLowerCase().equals("all") == false;
+		
+		//triage on a bounded pool, each request is a chain of blocking NFS metadata calls so more threads than cores helps
+		ExecutorService workers = null;
+		if (triageThreads > 1) workers = Executors.newFixedThreadPool(triageThreads);
+		ArrayList<Future<Triage>> results = new ArrayList<Future<Triage>>();
+		try {
+			for (final GNomExRequest r: requests) {
+				if (test && r.getRequestIdCleaned().equals(experimentRequestsToProc) == false) continue;
+				Callable<Triage> c = new Callable<Triage>() {
+					public Triage call() throws Exception {
+						return triageRequest(r, test);
+					}
+				};
+				if (workers != null) results.add(workers.submit(c));
+				else {
+					FutureTask<Triage> ft = new FutureTask<Triage>(c);
+					ft.run();
+					results.add(ft);
+				}
 			}
 			
-			//find the appropriate year for the request
-			calendar.setTime(dateFormat.parse(r.getCreationDate()));
-			String year = Integer.toString(calendar.get(Calendar.YEAR));
-			File repoYearSubDir = experimentalSubDirs.get(year);
-			
-			//look for the actual request directory
-			if (repoYearSubDir == null) throw new IOException ("Failed to find the year "+year+" sub directory in "+experimentalSubDirs +" for "+r.getRequestIdCleaned());
-			File requestDirOnRepo = new File (repoYearSubDir, r.getRequestIdCleaned());
-			if (requestDirOnRepo.exists() == false) {
-				Util.pl("\tERROR: failed to find the Request directory "+requestDirOnRepo+" skipping!");
-				r.setErrorMessages("Failed to find the request directory in the repo : "+ requestDirOnRepo);
-				grsSkipped.add(r);
-				continue;
-			}
-			r.setRequestDirectory(requestDirOnRepo);
-
-			//is fastq or ora ready, otherwise skip
-			if (r.checkFastq() == false) {
-				if (verbose) Util.pl("\tFailed to find Fastq ready skipping! No md5? Too new?");
-				r.setErrorMessages("Failed to find Fastq ready.");
-				grsSkipped.add(r);				
-				continue;
-			}
-
-			//do they want analysis assistance and provided some notes?
-			if (r.isRequestBioinfoAssistance() == true && r.getAnalysisNotes().equals("NA")==false) {
-				grsRequestingAnalysisAssistance.add(r);
-				if (verbose) Util.pl("\tAdding to Requesting Analysis Assistance.");
-			}
-
-			//do they want Auto Analysis?
-			if (r.isAutoAnalyze() == true) {
-					//check for an existing AutoAnalysis
-					if (r.checkForAutoAnalysis()) {
-						if (verbose) Util.pl("\tFound exiting AutoAnalysis dir");
-						grsWithAutoAnalysis.add(r);
-					}
-
-					//run a bunch of other checks to see if an AutoAnalysis could be assembled
-					else {
-						//is this a supported organism_libraryPrep?
-						String orgLib = r.getOrganism()+"_"+Util.WHITE_SPACE.matcher(r.getLibraryPreparation()).replaceAll("");
-						if (orgLibWorkflowDocs.containsKey(orgLib)) {
-							String[] pathsMultiQCOptions = orgLibWorkflowDocs.get(orgLib);
-							
-							//check fastq/ ora for dnaAlignQC?
-							if (pathsMultiQCOptions[0].contains(dnaAlignQCWFName)) {
-								if (r.checkR1R2FastqsPerSample()==false) {
-									r.setErrorMessages("For dnaAlignQC workflows, only fastq datasets with _R1_s and _R2_s are supported, UMIs need custom analysis. Check all samples for just _R1_s and _R2_s.");
-									grsSkipped.add(r);
-									//also add to the assistance in case they would like a custom manual analysis
-									grsRequestingAnalysisAssistance.add(r);
-									if (verbose) Util.pl("\t"+ r.getErrorMessages());
-									continue;
-								}
-							}
-							if (verbose) Util.pl("\tReady for AutoAnalysis");
-							r.setWorkflowPaths(pathsMultiQCOptions[0]);
-							grsToBuildAutoAnalysis.add(r);
-						}
-						else {
-							//add to missing org lib prep tracker.
-							Integer count = molp.get(orgLib);
-							if (count == null) molp.put(orgLib, 1);
-							else molp.put(orgLib, count+1);
-							r.setErrorMessages("Library Protocol not supported at this time, skipping AutoAnalysis ");
-							grsSkipped.add(r);
-							//also add to the AA in case they would like a custom manual analysis, fastq is ready at this point
-							grsRequestingAnalysisAssistance.add(r);
-							if (verbose) Util.pl("\t"+ r.getErrorMessages());
-						}
-					}
+			//merge in request order so the arrays, log, and emails are the same as a serial pass, the first failure is thrown
+			Exception failure = null;
+			for (Future<Triage> f: results) {
+				try {
+					mergeTriage(f.get());
+				} catch (ExecutionException e) {
+					if (failure == null) failure = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
 				}
+			}
+			if (failure != null) throw failure;
+		} finally {
+			if (workers != null) workers.shutdown();
 		}
+		
 		//check if new missingOrgLibPreps
+		if (cycleRequests != null) {
+			HashSet<String> ids = new HashSet<String>();
+			for (GNomExRequest r: cycleRequests) ids.add(r.getOriginalRequestId());
+			missingOrgLibById.keySet().retainAll(ids);
+		}
+		TreeMap<String, Integer> molp = new TreeMap<String, Integer>();
+		for (String orgLib: missingOrgLibById.values()) {
+			Integer count = molp.get(orgLib);
+			if (count == null) molp.put(orgLib, 1);
+			else molp.put(orgLib, count+1);
+		}
 		checkEmailMissingOrgLibPreps(molp);
+		
+		try {
+			repositoryIndex.save();
+		} catch (IOException e) {
+			//not fatal, the next cycle just lists more
+			Util.pl("WARNING: failed to save the repository index "+repositoryIndexFile+" "+e.getMessage());
+		}
+		Util.pl("\tRepository index: "+repositoryIndex.fetchAndResetStats());
+		if (cycleRequests != null) {
+			HashSet<String> ids = new HashSet<String>();
+			for (GNomExRequest r: cycleRequests) ids.add(r.getRequestIdCleaned());
+			sealedRequests.retain(ids);
+		}
+		saveSealedRequests();
 
 		//stats
 		Util.pl("\t"+grsToBuildAutoAnalysis.size()+ "\tAutoAnalysis to run");
@@ -528,6 +943,125 @@ public class GNomExAutoAnalysis {
 	}
 
 
+	/**Runs the file system checks for one request on a triage thread. Touches only the request, the thread safe indexes, and
+	 * read only config, everything for the shared arrays and the log goes in the returned Triage.*/
+	private Triage triageRequest(GNomExRequest r, boolean test) throws Exception {
+		Triage t = new Triage(r);
+		r.resetCycleState();
+		
+		if (test) t.log("\nTest ExperimentRequest:\n"+r+"\n");
+		else if (verbose) t.log("\tSummary:\t"+r.simpleToString());
+
+		//do they want any help? the DB query should prevent any of this type of request, so this should be redundant
+		if (r.isAutoAnalyze() == false && r.isRequestBioinfoAssistance() == false) {
+			if (verbose) t.log("\tNo help or analysis requested");
+			t.skipped = true;
+			return t;
+		}
+		
+		//find the appropriate year for the request
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(dateFormat.get().parse(r.getCreationDate()));
+		String year = Integer.toString(calendar.get(Calendar.YEAR));
+		File repoYearSubDir = experimentalSubDirs.get(year);
+		
+		//look for the actual request directory
+		if (repoYearSubDir == null) throw new IOException ("Failed to find the year "+year+" sub directory in "+experimentalSubDirs +" for "+r.getRequestIdCleaned());
+		File requestDirOnRepo = new File (repoYearSubDir, r.getRequestIdCleaned());
+		if (repositoryIndex.requestDirectoryExists(repoYearSubDir, r.getRequestIdCleaned()) == false) {
+			t.log("\tERROR: failed to find the Request directory "+requestDirOnRepo+" skipping!");
+			r.setErrorMessages("Failed to find the request directory in the repo : "+ requestDirOnRepo);
+			t.skipped = true;
+			return t;
+		}
+		r.setRequestDirectory(requestDirOnRepo);
+		r.setFastqSnapshot(repositoryIndex.fetchFastqSnapshot(requestDirOnRepo));
+		
+		//COMPLETE analyses are only checked again if their Fastq or AutoAnalysis dir changed
+		if (sealedRequests.isSealed(r.getRequestIdCleaned(), r.getFastqSnapshot())) {
+			if (verbose) t.log("\tSealed COMPLETE");
+			if (r.isRequestBioinfoAssistance() == true && r.getAnalysisNotes().equals("NA")==false) t.assistance = true;
+			t.state = Triage.COMPLETE;
+			return t;
+		}
+
+		//is fastq or ora ready, otherwise skip
+		if (r.checkFastq() == false) {
+			if (verbose) t.log("\tFailed to find Fastq ready skipping! No md5? Too new?");
+			r.setErrorMessages("Failed to find Fastq ready.");
+			t.skipped = true;
+			//analyzed before and now without Fastq is archived, too new or no md5 yet, e.g. HTG adding fastq, is checked again
+			if (r.isFastqMissing() && r.checkForAutoAnalysis()) t.state = Triage.ARCHIVED;
+			else t.state = Triage.WAITING_ON_FASTQ;
+			return t;
+		}
+
+		//do they want analysis assistance and provided some notes?
+		if (r.isRequestBioinfoAssistance() == true && r.getAnalysisNotes().equals("NA")==false) {
+			t.assistance = true;
+			if (verbose) t.log("\tAdding to Requesting Analysis Assistance.");
+		}
+
+		//do they want Auto Analysis?
+		if (r.isAutoAnalyze() == true) {
+				//check for an existing AutoAnalysis
+				if (r.checkForAutoAnalysis()) {
+					if (verbose) t.log("\tFound exiting AutoAnalysis dir");
+					t.withAutoAnalysis = true;
+				}
+
+				//run a bunch of other checks to see if an AutoAnalysis could be assembled
+				else {
+					//is this a supported organism_libraryPrep?
+					String orgLib = r.getOrganism()+"_"+Util.WHITE_SPACE.matcher(r.getLibraryPreparation()).replaceAll("");
+					if (orgLibWorkflowDocs.containsKey(orgLib)) {
+						String[] pathsMultiQCOptions = orgLibWorkflowDocs.get(orgLib);
+						
+						//check fastq/ ora for dnaAlignQC?
+						if (pathsMultiQCOptions[0].contains(dnaAlignQCWFName)) {
+							if (r.checkR1R2FastqsPerSample()==false) {
+								r.setErrorMessages("For dnaAlignQC workflows, only fastq datasets with _R1_s and _R2_s are supported, UMIs need custom analysis. Check all samples for just _R1_s and _R2_s.");
+								t.skipped = true;
+								//also add to the assistance in case they would like a custom manual analysis
+								t.assistance = true;
+								if (verbose) t.log("\t"+ r.getErrorMessages());
+								return t;
+							}
+						}
+						if (verbose) t.log("\tReady for AutoAnalysis");
+						r.setWorkflowPaths(pathsMultiQCOptions[0]);
+						t.toBuild = true;
+					}
+					else {
+						//add to missing org lib prep tracker.
+						t.missingOrgLib = orgLib;
+						if (r.isMultipleOrganisms()) r.setErrorMessages("Samples from multiple organisms ("+r.getOrganism()+") are not supported, skipping AutoAnalysis ");
+						else r.setErrorMessages("Library Protocol not supported at this time, skipping AutoAnalysis ");
+						t.skipped = true;
+						//also add to the AA in case they would like a custom manual analysis, fastq is ready at this point
+						t.assistance = true;
+						if (verbose) t.log("\t"+ r.getErrorMessages());
+					}
+				}
+			}
+		return t;
+	}
+	
+	/**Adds a triaged request to the status arrays, in the order the arrays were filled by the serial pass.*/
+	private void mergeTriage(Triage t) {
+		GNomExRequest r = t.request;
+		if (t.log.length() != 0) Util.pl(t.log);
+		missingOrgLibById.remove(r.getOriginalRequestId());
+		if (t.missingOrgLib != null) missingOrgLibById.put(r.getOriginalRequestId(), t.missingOrgLib);
+		if (t.withAutoAnalysis) grsWithAutoAnalysis.add(r);
+		if (t.toBuild) grsToBuildAutoAnalysis.add(r);
+		if (t.skipped) grsSkipped.add(r);
+		if (t.assistance) grsRequestingAnalysisAssistance.add(r);
+		if (t.state == Triage.COMPLETE) idsComplete.add(r.getRequestIdCleaned());
+		else if (t.state == Triage.ARCHIVED) idsArchived.add(r.getRequestIdCleaned());
+		else if (t.state == Triage.WAITING_ON_FASTQ) idsWaitingOnFastq.add(r.getRequestIdCleaned());
+	}
+
 	private void checkEmailMissingOrgLibPreps(TreeMap<String, Integer> molp) {
 		//check if different
 		boolean different = false;
@@ -609,8 +1143,26 @@ public class GNomExAutoAnalysis {
 		
 		Util.pl("\nLoading pattern species matcher for ORA compression...");
 		oraSpeciesMatcher = new OraSpeciesMatcher();
-
-
+		
+		makeRequestSource();
+	}
+	
+	private void makeRequestSource() throws Exception {
+		if (requestSourceType.equals("file")) requestSource = new GNomExFileSource(requestSourceFile, sampleSourceFile, verbose);
+		else if (requestSourceType.equals("synthetic")) requestSource = new GNomExSyntheticSource(syntheticRequests, syntheticSamplesPerRequest);
+		else {
+			//long lived connections, incremental queries that only pull the full 12 month window every hoursBetweenFullQueries
+			connectionManager = new GNomExConnectionManager(connectionUrl, 2, dbQueryTimeoutSeconds, verbose);
+			GNomExDbQuery dbQuery = new GNomExDbQuery(connectionManager, hoursBetweenFullQueries, verbose);
+			requestSource = dbQuery;
+			
+			//warm start from the last good query, the first query will then just be a delta
+			gnomExSnapshot = new GNomExSnapshot(gnomExSnapshotFile);
+			if (gnomExSnapshotFile.exists()) {
+				Util.pl("\nLoading the last GNomEx snapshot...");
+				if (gnomExSnapshot.query()) dbQuery.seed(gnomExSnapshot);
+			}
+		}
 	}	
 
 	private void parseProcessCredentialsFile() throws IOException {
@@ -632,23 +1184,27 @@ public class GNomExAutoAnalysis {
 		String line;
 		
 		orgLibWorkflowDocs = new HashMap<String, String[]>();
+		orgLibMultiQCFileLists = new HashMap<String, MultiQCFileList>();
 		boolean errors = false;
 		while ((line = in.readLine())!=null) {
 			line = line.trim();
 			if (line.startsWith("#") || line.length()==0) continue;
-			//Organism   LibraryKit(s)   WFDirFile(s)   MultiQCOptions
-			//    0          1                2              3
+			//Organism   LibraryKit(s)   WFDirFile(s)   MultiQCOptions   MultiQCInputPatterns (optional)
+			//    0          1                2              3                4
 			fields = Util.TAB.split(line);
-			if (fields.length != 4) {
+			if (fields.length != 4 && fields.length != 5) {
 				Util.pl("\tERROR: missing fields in workflow config line -> "+line);
 				errors = true;
 			}
 			else {
 				if (verbose) Util.pl("\t"+line);
+				MultiQCFileList mfl = null;
+				if (fields.length == 5 && fields[4].trim().toLowerCase().equals("none") == false) mfl = new MultiQCFileList(fields[4]);
 				String[] libPreps = Util.SEMI_COLON_SPACE.split(fields[1]);
 				for (String lp: libPreps) {
 					String key = fields[0].trim()+"_"+Util.WHITE_SPACE.matcher(lp).replaceAll("");
 					orgLibWorkflowDocs.put(key, new String[] {fields[2], fields[3]});
+					if (mfl != null) orgLibMultiQCFileLists.put(key, mfl);
 					if (verbose) Util.pl("\t\t'"+ key +"' -> "+fields[2]+" and "+fields[3]);
 				}
 			}
@@ -697,14 +1253,34 @@ public class GNomExAutoAnalysis {
 		if (configSettings.containsKey("hoursToWait") == false) Util.printErrAndExit("\nError: failed to find the 'hoursToWait' key in "+ configFile);
 		hoursToWait = Double.parseDouble(configSettings.get("hoursToWait"));
 		waitTime = (long)Math.round(hoursToWait * 60.0 * 60.0 * 1000.0);
+		
+		//HoursBetweenFullQueries, optional, in between just the requests modified since the last query are fetched
+		if (configSettings.containsKey("hoursBetweenFullQueries")) hoursBetweenFullQueries = Double.parseDouble(configSettings.get("hoursBetweenFullQueries"));
+		
+		//DbQueryTimeoutSeconds, optional, max time for each GNomEx query before it is abandoned and reported
+		if (configSettings.containsKey("dbQueryTimeoutSeconds")) dbQueryTimeoutSeconds = Integer.parseInt(configSettings.get("dbQueryTimeoutSeconds"));
+		
+		//RequestSource, optional, gnomexDb (default), file, or synthetic for testing and benchmarking without the GNomEx db
+		if (configSettings.containsKey("requestSource")) requestSourceType = configSettings.get("requestSource");
+		if (requestSourceType.equals("file")) {
+			if (configSettings.containsKey("requestSourceFile") == false) Util.printErrAndExit("\nError: failed to find the 'requestSourceFile' key needed by the file requestSource in "+ configFile);
+			requestSourceFile = new File (configSettings.get("requestSourceFile"));
+			if (requestSourceFile.canRead() == false) Util.printErrAndExit("\nError: cannot read the 'requestSourceFile' "+ requestSourceFile);
+			if (configSettings.containsKey("sampleSourceFile")) sampleSourceFile = new File (configSettings.get("sampleSourceFile"));
+		}
+		else if (requestSourceType.equals("synthetic")) {
+			if (configSettings.containsKey("syntheticRequests")) syntheticRequests = Integer.parseInt(configSettings.get("syntheticRequests"));
+			if (configSettings.containsKey("syntheticSamplesPerRequest")) syntheticSamplesPerRequest = Integer.parseInt(configSettings.get("syntheticSamplesPerRequest"));
+		}
+		else if (requestSourceType.equals("gnomexDb") == false) Util.printErrAndExit("\nError: the 'requestSource' must be one of gnomexDb, file, or synthetic in "+ configFile);
 
 		//experimental directories
 		String experimentDirString = configSettings.get("experimentDir");
 		if (experimentDirString == null) Util.printErrAndExit("\nError: failed to find the 'experimentDir' key in "+ configFile);
-		File ed = new File(experimentDirString);
-		if (ed.exists() == false) Util.printErrAndExit("\nError: failed to find the 'experimentDir' directory in "+ configFile);
-		experimentalSubDirs = Util.extractDirectories(ed);
-		if (experimentalSubDirs.containsKey("2023") == false) Util.printErrAndExit("\nError: failed to find the '2023' directory in "+ ed);
+		experimentDir = new File(experimentDirString);
+		if (experimentDir.exists() == false) Util.printErrAndExit("\nError: failed to find the 'experimentDir' directory in "+ configFile);
+		experimentalSubDirs = Util.extractDirectories(experimentDir);
+		if (experimentalSubDirs.containsKey("2023") == false) Util.printErrAndExit("\nError: failed to find the '2023' directory in "+ experimentDir);
 
 		if (configSettings.containsKey("hciLinkDirectory") == false) Util.printErrAndExit("\nError: failed to find the 'hciLinkDirectory' key in "+ configFile);
 		hciLinkDirectoryString = configSettings.get("hciLinkDirectory");
@@ -716,6 +1292,48 @@ public class GNomExAutoAnalysis {
 		if (configSettings.containsKey("hciTempDirectory") == false) Util.printErrAndExit("\nError: failed to find the 'hciTempDirectory' key in "+ configFile);
 		hciTempDirectory = new File (configSettings.get("hciTempDirectory"));
 		if (hciTempDirectory.exists() == false && hciTempDirectory.mkdirs() == false) Util.printErrAndExit("\nError: failed to find the 'hciTempDirectory' file in "+ configFile);
+		
+		//GNomEx db snapshot, optional, defaults to the hciTempDirectory
+		if (configSettings.containsKey("gnomExSnapshotFile")) gnomExSnapshotFile = new File (configSettings.get("gnomExSnapshotFile"));
+		else gnomExSnapshotFile = new File (hciTempDirectory, "gnomExDbSnapshot.bin.gz");
+		
+		//fastq read count cache, optional, defaults to the hciTempDirectory
+		if (configSettings.containsKey("fastqReadCacheFile")) fastqReadCacheFile = new File (configSettings.get("fastqReadCacheFile"));
+		else fastqReadCacheFile = new File (hciTempDirectory, "fastqReadCache.txt");
+		
+		//threads for the per request Repository checks in parseRequests, optional, NFS latency bound so well past the cores
+		if (configSettings.containsKey("triageThreads")) triageThreads = Integer.parseInt(configSettings.get("triageThreads"));
+		
+		//threads for the MultiQC and JobCleaner stage, optional, each request runs its own docker and java processes
+		if (configSettings.containsKey("multiQCThreads")) multiQCThreads = Integer.parseInt(configSettings.get("multiQCThreads"));
+		
+		//run JobCleaner and AggregateQCStats2 in this JVM, optional, defaults to false
+		if (configSettings.containsKey("useqInProcess")) useqInProcess = Boolean.parseBoolean(configSettings.get("useqInProcess"));
+		if (configSettings.containsKey("useqTimeoutMinutes")) useqTimeoutMinutes = Double.parseDouble(configSettings.get("useqTimeoutMinutes"));
+		
+		//long lived MultiQC container, optional, defaults to true
+		if (configSettings.containsKey("warmMultiQCContainer")) warmMultiQCContainer = Boolean.parseBoolean(configSettings.get("warmMultiQCContainer"));
+		
+		//threads for validating and linking samples when building jobs, optional
+		if (configSettings.containsKey("jobBuildThreads")) jobBuildThreads = Integer.parseInt(configSettings.get("jobBuildThreads"));
+		
+		//Repository Fastq listing index, optional, defaults to the hciTempDirectory
+		if (configSettings.containsKey("repositoryIndexFile")) repositoryIndexFile = new File (configSettings.get("repositoryIndexFile"));
+		else repositoryIndexFile = new File (hciTempDirectory, "repositoryFastqIndex.bin.gz");
+		
+		//sealed COMPLETE request index, optional, defaults to the hciTempDirectory
+		if (configSettings.containsKey("sealedRequestIndexFile")) sealedRequestIndexFile = new File (configSettings.get("sealedRequestIndexFile"));
+		else sealedRequestIndexFile = new File (hciTempDirectory, "sealedRequests.txt");
+		
+		//event driven mode, optional, watch the Repository and hciLinkDirectory between the hoursToWait full cycles
+		if (configSettings.containsKey("watchRepository")) watchRepository = Boolean.parseBoolean(configSettings.get("watchRepository"));
+		if (configSettings.containsKey("watchPollMinutes")) watchPollMinutes = Double.parseDouble(configSettings.get("watchPollMinutes"));
+		
+		//per request check cadence, optional, minutes between checks of active requests, settled ones back off, 0 checks all every hoursToWait
+		if (configSettings.containsKey("activeCheckMinutes")) activeCheckMinutes = Double.parseDouble(configSettings.get("activeCheckMinutes"));
+		
+		//threads for counting every read and base of the fastqs before launch, optional, 0 to skip
+		if (configSettings.containsKey("fastqDepthThreads")) fastqDepthThreads = Integer.parseInt(configSettings.get("fastqDepthThreads"));
 
 		
 		//JobCleaner path command
@@ -754,6 +1372,23 @@ public class GNomExAutoAnalysis {
 				"\n  adminEmail\t"+ adminEmail+
 				"\n  analysisReadyEmail\t"+analysisReadyEmail+
 				"\n  hoursToWait\t"+ hoursToWait+
+				"\n  hoursBetweenFullQueries\t"+ hoursBetweenFullQueries+
+				"\n  dbQueryTimeoutSeconds\t"+ dbQueryTimeoutSeconds+
+				"\n  requestSource\t"+ requestSourceType+
+				"\n  gnomExSnapshotFile\t"+ gnomExSnapshotFile+
+				"\n  fastqReadCacheFile\t"+ fastqReadCacheFile+
+				"\n  triageThreads\t"+ triageThreads+
+				"\n  multiQCThreads\t"+ multiQCThreads+
+				"\n  warmMultiQCContainer\t"+ warmMultiQCContainer+
+				"\n  useqInProcess\t"+ useqInProcess+
+				"\n  useqTimeoutMinutes\t"+ useqTimeoutMinutes+
+				"\n  jobBuildThreads\t"+ jobBuildThreads+
+				"\n  fastqDepthThreads\t"+ fastqDepthThreads+
+				"\n  repositoryIndexFile\t"+ repositoryIndexFile+
+				"\n  sealedRequestIndexFile\t"+ sealedRequestIndexFile+
+				"\n  watchRepository\t"+ watchRepository+
+				"\n  watchPollMinutes\t"+ watchPollMinutes+
+				"\n  activeCheckMinutes\t"+ activeCheckMinutes+
 				"\n  verbose\t"+verbose+
 				"\n  connectionUrl\t"+ connectionUrl+
 				"\n  experimentDirString\t"+ experimentDirString+
@@ -799,7 +1434,28 @@ public class GNomExAutoAnalysis {
 	}
 
 
+	/**One request's triage result, merged into the status arrays on the daemon thread.*/
+	private static class Triage {
+		static final int WAITING_ON_FASTQ = 1;
+		static final int ARCHIVED = 2;
+		static final int COMPLETE = 3;
+		
+		GNomExRequest request;
+		boolean skipped = false;
+		boolean withAutoAnalysis = false;
+		boolean toBuild = false;
+		boolean assistance = false;
+		int state = 0;
+		String missingOrgLib = null;
+		StringBuilder log = new StringBuilder();
+		
+		Triage(GNomExRequest request) {
+			this.request = request;
+		}
+		
+		void log(String line) {
+			if (log.length() != 0) log.append("\n");
+			log.append(line);
+		}
+	}
 }
-
-
-
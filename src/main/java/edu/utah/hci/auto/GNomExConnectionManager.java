@@ -0,0 +1,142 @@
+package edu.utah.hci.auto;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**Keeps a small pool of validated GNomEx db connections open across daemon cycles along with their precompiled PreparedStatements.
+ * A circuit breaker stops hammering a slow or down hci-db, after each consecutive failure the wait before the next attempt doubles,
+ * up to maxBackoffMinutes, and borrowing a connection while open fails fast instead of blocking the daemon.*/
+public class GNomExConnectionManager {
+
+	//config fields
+	// jdbc:sqlserver://hci-db.hci.utah.edu:1433;databaseName=gnomex;user=pipeline;password=xxxxxxx
+	// replace xxxxx pwd from https://ri-confluence.hci.utah.edu/pages/viewpage.action?pageId=38076459
+	private String connectionUrl = null;
+	private int poolSize = 2;
+	private int loginTimeoutSeconds = 60;
+	private int queryTimeoutSeconds = 600;
+	private int validationTimeoutSeconds = 10;
+	private int fetchSize = 1000;
+	private double minBackoffMinutes = 5;
+	private double maxBackoffMinutes = 360;
+	private boolean verbose = false;
+
+	//internal fields
+	private ArrayList<Connection> idleConnections = new ArrayList<Connection>();
+	private int numberBorrowed = 0;
+	private HashMap<Connection, HashMap<String, PreparedStatement>> preparedStatements = new HashMap<Connection, HashMap<String, PreparedStatement>>();
+	private int consecutiveFailures = 0;
+	private long circuitOpenUntil = 0;
+	private String lastFailure = null;
+
+	public GNomExConnectionManager(String connectionUrl, int poolSize, int queryTimeoutSeconds, boolean verbose) throws ClassNotFoundException {
+		this.connectionUrl = connectionUrl;
+		this.poolSize = poolSize;
+		this.queryTimeoutSeconds = queryTimeoutSeconds;
+		this.verbose = verbose;
+		//needed in the fat jar where the driver service file may not be merged
+		Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
+		DriverManager.setLoginTimeout(loginTimeoutSeconds);
+	}
+
+	/**Returns an open, validated connection. Throws an SQLException without touching the db if the circuit is open.*/
+	public synchronized Connection borrow() throws SQLException {
+		if (isCircuitOpen()) throw new SQLException("GNomEx db circuit breaker is open after "+consecutiveFailures+" consecutive failures, next attempt after "+
+				new java.util.Date(circuitOpenUntil)+". Last failure: "+lastFailure);
+		if (numberBorrowed >= poolSize) throw new SQLException("All "+poolSize+" GNomEx db connections are in use.");
+
+		//reuse an idle one if it is still alive
+		while (idleConnections.size() != 0) {
+			Connection c = idleConnections.remove(idleConnections.size()-1);
+			if (isValid(c)) {
+				numberBorrowed++;
+				return c;
+			}
+			discard(c);
+		}
+
+		if (verbose) Util.pl("Attempting to make a connection...");
+		Connection c = DriverManager.getConnection(connectionUrl);
+		preparedStatements.put(c, new HashMap<String, PreparedStatement>());
+		numberBorrowed++;
+		return c;
+	}
+
+	/**Returns the connection to the pool. Pass failed = true to close it and count the failure against the circuit breaker.*/
+	public synchronized void release(Connection c, boolean failed) {
+		if (c == null) return;
+		numberBorrowed--;
+		if (failed) discard(c);
+		else idleConnections.add(c);
+	}
+
+	/**Fetches a cached PreparedStatement for the connection or compiles a new one with the fetch size and query timeout set.*/
+	public synchronized PreparedStatement prepare(Connection c, String sql) throws SQLException {
+		HashMap<String, PreparedStatement> statements = preparedStatements.get(c);
+		PreparedStatement ps = statements.get(sql);
+		if (ps == null || ps.isClosed()) {
+			ps = c.prepareStatement(sql);
+			ps.setFetchSize(fetchSize);
+			ps.setQueryTimeout(queryTimeoutSeconds);
+			statements.put(sql, ps);
+		}
+		else ps.clearParameters();
+		return ps;
+	}
+
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		circuitOpenUntil = 0;
+		lastFailure = null;
+	}
+
+	/**Opens the circuit for an exponentially increasing backoff.*/
+	public synchronized void recordFailure(Throwable e) {
+		consecutiveFailures++;
+		lastFailure = e.getMessage();
+		double minutes = minBackoffMinutes * Math.pow(2, consecutiveFailures-1);
+		if (minutes > maxBackoffMinutes) minutes = maxBackoffMinutes;
+		circuitOpenUntil = System.currentTimeMillis() + (long)(minutes * 60.0 * 1000.0);
+		if (verbose) Util.pl("\tGNomEx db failure "+consecutiveFailures+", circuit open for "+minutes+" min: "+lastFailure);
+	}
+
+	public synchronized boolean isCircuitOpen() {
+		return circuitOpenUntil > System.currentTimeMillis();
+	}
+
+	private boolean isValid(Connection c) {
+		try {
+			return c.isClosed() == false && c.isValid(validationTimeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(Connection c) {
+		HashMap<String, PreparedStatement> statements = preparedStatements.remove(c);
+		if (statements != null) for (PreparedStatement ps: statements.values()) try { ps.close(); } catch(Exception e) {}
+		try { c.close(); } catch(Exception e) {}
+	}
+
+	/**Closes all idle connections, call upon shutdown.*/
+	public synchronized void close() {
+		for (Connection c: idleConnections) discard(c);
+		idleConnections.clear();
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	public long getCircuitOpenUntil() {
+		return circuitOpenUntil;
+	}
+
+	public String getLastFailure() {
+		return lastFailure;
+	}
+}
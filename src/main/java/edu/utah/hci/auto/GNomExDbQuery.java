@@ -2,208 +2,345 @@ package edu.utah.hci.auto;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**Queries the GNomEx db for AutoAnalysis requests and sample species. The first call to query() and every
+ * hoursBetweenFullQueries thereafter pulls the full 12 month window, all other calls just fetch the requests
+ * created or modified since the last high water mark and merge them into the in memory request and sample tables.*/
+public class GNomExDbQuery implements GNomExRequestSource {
+
+	private double hoursBetweenFullQueries = 24;
 
-public class GNomExDbQuery {
-	
-	// jdbc:sqlserver://hci-db.hci.utah.edu:1433;databaseName=gnomex;user=pipeline;password=xxxxxxx
-	// replace xxxxx pwd from https://ri-confluence.hci.utah.edu/pages/viewpage.action?pageId=38076459
-	private String connectionUrl = null;
-	
 	//internal
-	private Connection con = null;
-	private Statement stmt = null;
-	private ResultSet rs = null;
+	private GNomExConnectionManager connectionManager = null;
 	private GNomExRequest[] requests = null;
 	private GNomExSample[] samples = null;
 	private boolean failed = false;
+	private String errorMessage = null;
 	private boolean verbose = true;
 
+	//incremental fields, keyed by request.number
+	private HashMap<String, GNomExRequest> requestTable = new HashMap<String, GNomExRequest>();
+	private HashMap<String, ArrayList<GNomExSample>> sampleTable = new HashMap<String, ArrayList<GNomExSample>>();
+	private Timestamp watermark = null;
+	private long lastFullQueryTime = 0;
+	private boolean lastQueryWasFull = false;
+	private int numberChangedRequests = 0;
+	//look back a bit before the watermark to catch rows committed out of order, the merge makes repeats harmless
+	private static final long watermarkOverlap = 1000*60*10;
+
+	/*One row per request, the distinct sample organisms are collapsed server side into a '; ' delimited, sorted list.
+	 * The prior SELECT DISTINCT over the sample and organism joins returned a row per request organism.*/
+	private static final String autoAnalysisSelect = "SELECT "+
+			"request.number,  "+				//0
+			"request.createDate,  "+			//1
+			"appuser.email, "+					//2
+			"lab.lastname,  "+					//3
+			"lab.firstname,  "+					//4
+			"(SELECT STRING_AGG(o.organism, '; ') WITHIN GROUP (ORDER BY o.organism) FROM "+
+				"(SELECT DISTINCT organism.organism FROM sample join organism on sample.idorganism = organism.idorganism "+
+				"WHERE sample.idrequest = request.idrequest) o), "+	//5  one or more organisms
+			"application.application, "+		//6
+			"request.analysisInstructions, "+	//7   NA or freeform txt
+			"request.alignToGenomeBuild, "+     //8  NA, N, or Y
+			"request.bioInformaticsAssist, "+   //9  N or Y
+			"request.codeRequestStatus, "+      //10
+			"request.lastModifyDate "+			//11
+			"FROM request  "+
+			"join project on project.idproject = request.idproject  "+
+			"join lab on lab.idlab = request.idlab  "+
+			"join appuser on appuser.idappuser = request.idappuser  "+
+			"join application on application.codeapplication = request.codeapplication ";
+
+	//replaces the sample and organism inner joins, only requests with at least one sample with an organism
+	private static final String autoAnalysisHasSamples = "AND EXISTS (SELECT 1 FROM sample join organism on sample.idorganism = organism.idorganism "+
+			"WHERE sample.idrequest = request.idrequest) ";
+
+	//the original per organism form, only used by main() to compare against the aggregated query
+	private static final String legacyAutoAnalysisSelect = "SELECT DISTINCT request.number, request.createDate, appuser.email, lab.lastname, lab.firstname, "+
+			"organism.organism, application.application, request.analysisInstructions, request.alignToGenomeBuild, request.bioInformaticsAssist, "+
+			"request.codeRequestStatus, request.lastModifyDate "+
+			"FROM request join project on project.idproject = request.idproject join lab on lab.idlab = request.idlab "+
+			"join sample on sample.idrequest = request.idrequest join organism on sample.idorganism = organism.idorganism "+
+			"join appuser on appuser.idappuser = request.idappuser join application on application.codeapplication = request.codeapplication ";
+
+	private static final String speciesSelect = "SELECT DISTINCT request.number, sample.number, organism.organism, request.createDate, request.lastModifyDate, request.oraCompression "+
+			"FROM request "+
+			"join project on project.idproject = request.idproject "+
+			"join sample on sample.idrequest = request.idrequest "+
+			"join organism on sample.idorganism = organism.idorganism ";
+
+	//query last 12 months, fastq is only guaranteed to be around for 3 months
+	private static final String fullWindow = "WHERE (request.lastModifyDate > (select dateadd(month, -12, getdate())) "+
+			"OR request.createDate > (select dateadd(month, -12, getdate()))) ";
+
+	//just those changed since the watermark, the bioinformatics filter is applied in the merge so requests that drop their analysis request are removed
+	private static final String deltaWindow = "WHERE (request.lastModifyDate > ? OR request.createDate > ?) ";
+
+	/**Runs a single full query, e.g. for testing.*/
 	public GNomExDbQuery (String connectionUrl, boolean verbose) {
-		this.connectionUrl = connectionUrl;
 		this.verbose = verbose;
-		
 		try {
-			runQueries();
-		} catch (Exception e) {
+			connectionManager = new GNomExConnectionManager(connectionUrl, 2, 600, verbose);
+			query();
+		} catch (ClassNotFoundException e) {
 			failed = true;
 			e.printStackTrace();
-			
 		} finally {
-			if(rs != null) try { rs.close(); } catch(Exception e) {}
-			if(stmt != null) try { stmt.close(); } catch(Exception e) {}
-			if(con != null) try { con.close(); } catch(Exception e) {}
+			if (connectionManager != null) connectionManager.close();
 		}
 	}
-	
-	private void parseRequests(ArrayList<String[]> requestsAl) {
-		requests = new GNomExRequest[requestsAl.size()];
-		int num = requestsAl.size();
-		for (int i=0; i< num; i++) requests[i] = new GNomExRequest(requestsAl.get(i));
-	}
-	
-	public void runQueries() throws Exception {
-		if (verbose) Util.pl("Instantiating a driver...");
-		Driver d = (Driver) Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver").newInstance();
-		if (verbose) Util.pl("\tDriver "+d);
-
-		//establish connection
-		if (verbose) Util.pl("Attempting to make a connection...");
-		Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
-		con = DriverManager.getConnection(connectionUrl);
-		
-		//query last 12 months, fastq is only guaranteed to be around for 3 months
-		if (verbose) Util.pl("Attempting query for AutoAnalysis....");
-		runAutoAnalysisQuery(d, con);
-		
-		if (verbose) Util.pl("Attempting query for Species Demux....");
-		runSpeciesQuery(d, con);
-}
-	private void runSpeciesQuery(Driver d, Connection con) throws Exception{
-		
-		String SQL = "SELECT DISTINCT request.number, sample.number, organism.organism, request.createDate, request.lastModifyDate, request.oraCompression "+
-		"FROM request "+
-		"join project on project.idproject = request.idproject "+
-		"join sample on sample.idrequest = request.idrequest "+
-		"join organism on sample.idorganism = organism.idorganism "+
-		"WHERE (request.lastModifyDate > (select dateadd(month, -12, getdate()))) "+
-		"OR (request.createDate > (select dateadd(month, -12, getdate()))) "+
-		"ORDER BY request.lastModifyDate;";
-
-		int numReturnValues = 6;
-		
-		stmt = con.createStatement();
-		rs = stmt.executeQuery(SQL);
-		if (verbose) Util.pl("Loading results...");
-		ArrayList<GNomExSample> requestsAl = new ArrayList<GNomExSample>();
-		while (rs.next()) {
-			String[] results = new String[numReturnValues];
-			int resultsIndex = 0;
-			for (int i=1; i<numReturnValues+1; i++) {
-				String val = rs.getString(i);
-				if (val != null) results[resultsIndex++] = val.trim();
-				else results[resultsIndex++] = "NA";
+
+	/**For the daemon, call query() each cycle. The connectionManager keeps the connection open between calls.*/
+	public GNomExDbQuery (GNomExConnectionManager connectionManager, double hoursBetweenFullQueries, boolean verbose) {
+		this.connectionManager = connectionManager;
+		this.hoursBetweenFullQueries = hoursBetweenFullQueries;
+		this.verbose = verbose;
+	}
+
+	/**Runs either a full or delta query and updates the requests and samples. Returns false if the query failed or the
+	 * connection circuit breaker is open, in which case the prior tables are left untouched, see getErrorMessage().*/
+	public boolean query() {
+		failed = false;
+		errorMessage = null;
+		boolean circuitWasOpen = connectionManager.isCircuitOpen();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			runQueries(executor);
+			connectionManager.recordSuccess();
+		} catch (Exception e) {
+			failed = true;
+			Throwable cause = e;
+			if (e instanceof ExecutionException && e.getCause() != null) cause = e.getCause();
+			errorMessage = cause.getMessage();
+			//only count real db failures against the breaker, not a fast fail from an already open one
+			if (circuitWasOpen) Util.pl("\t"+errorMessage);
+			else {
+				connectionManager.recordFailure(cause);
+				cause.printStackTrace();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return failed == false;
+	}
+
+	/**Runs the AutoAnalysis and species queries concurrently, each on its own pooled connection.*/
+	private void runQueries(ExecutorService executor) throws Exception {
+		//full or delta?
+		long now = System.currentTimeMillis();
+		boolean full = watermark == null || (now - lastFullQueryTime) >= (long)(hoursBetweenFullQueries * 60.0 * 60.0 * 1000.0);
+		final Timestamp since = full ? null : new Timestamp(watermark.getTime() - watermarkOverlap);
+
+		if (verbose) {
+			if (full) Util.pl("Attempting full queries for AutoAnalysis and Species Demux....");
+			else Util.pl("Attempting delta queries for AutoAnalysis and Species Demux since "+since+"....");
+		}
+		Future<ArrayList<GNomExRequest>> requestFuture = executor.submit(new Callable<ArrayList<GNomExRequest>>() {
+			public ArrayList<GNomExRequest> call() throws Exception {
+				return runAutoAnalysisQuery(since);
+			}
+		});
+		Future<ArrayList<GNomExSample>> sampleFuture = executor.submit(new Callable<ArrayList<GNomExSample>>() {
+			public ArrayList<GNomExSample> call() throws Exception {
+				return runSpeciesQuery(since);
 			}
-			GNomExSample gs = new GNomExSample(results);
-			requestsAl.add(gs);
-//Util.pl(gs.toString());
-//Util.pl(Util.stringArrayToString(results, "\t"));
+		});
+		ArrayList<GNomExRequest> newRequests = requestFuture.get();
+		ArrayList<GNomExSample> newSamples = sampleFuture.get();
+
+		//only modify the tables once both queries have succeeded
+		if (full) {
+			requestTable.clear();
+			sampleTable.clear();
+			lastFullQueryTime = now;
 		}
-//Util.pl(requestsAl.size()+"\tNumSpeciesRes");
-
-		samples = new GNomExSample[requestsAl.size()];
-		requestsAl.toArray(samples);
-		
-	}
-	
-	private void runAutoAnalysisQuery(Driver d, Connection con) throws Exception{
-		String SQL = "SELECT DISTINCT "+
-				"request.number,  "+				//0
-				"request.createDate,  "+			//1
-				"appuser.email, "+					//2
-				"lab.lastname,  "+					//3
-				"lab.firstname,  "+					//4
-				"organism.organism, "+				//5
-				"application.application, "+		//6
-				"request.analysisInstructions, "+	//7   NA or freeform txt
-				"request.alignToGenomeBuild, "+     //8  NA, N, or Y
-				"request.bioInformaticsAssist, "+   //9  N or Y
-				"request.codeRequestStatus, "+      //10
-				"request.lastModifyDate "+			//11
-				"FROM request  "+
-				"join project on project.idproject = request.idproject  "+
-				"join lab on lab.idlab = request.idlab  "+
-				"join sample on sample.idrequest = request.idrequest "+
-				"join organism on sample.idorganism = organism.idorganism "+
-				"join appuser on appuser.idappuser = request.idappuser  "+
-				"join application on application.codeapplication = request.codeapplication "+
-				"WHERE (request.lastModifyDate > (select dateadd(month, -12, getdate())) "+
-				"OR request.createDate > (select dateadd(month, -12, getdate()))) "+
-				"AND (request.bioInformaticsAssist = 'Y' OR request.alignToGenomeBuild = 'Y') "+
-				"ORDER BY request.lastModifyDate; ";
-		
-		
-//new
-// "WHERE (request.lastModifyDate > (select dateadd(month, -12, getdate())) "+
-// "OR request.createDate > (select dateadd(month, -12, getdate()))) "+
-		
-//old
-//	"WHERE request.createDate > (select dateadd(month, -12, getdate())) "+
-//	"AND (request.bioInformaticsAssist = 'Y' OR request.alignToGenomeBuild = 'Y') "+
-		
-		int numReturnValues = 12; 
-		
-		stmt = con.createStatement();
-		rs = stmt.executeQuery(SQL);
-		if (verbose) Util.pl("Loading results...");
-		ArrayList<String[]> requestsAl = new ArrayList<String[]>();
-		while (rs.next()) {
-			String[] results = new String[numReturnValues];
-			int resultsIndex = 0;
-			for (int i=1; i<numReturnValues+1; i++) {
-				String val = rs.getString(i);
-				if (val != null) results[resultsIndex++] = val.trim();
-				else results[resultsIndex++] = "NA";
+		numberChangedRequests = mergeRequests(newRequests);
+		mergeSamples(newSamples);
+		lastQueryWasFull = full;
+
+		requests = fetchSortedRequests();
+		samples = fetchSortedSamples();
+		if (verbose) Util.pl("\t"+numberChangedRequests+" changed requests, "+requests.length+" AutoAnalysis requests, "+samples.length+" samples, watermark "+watermark);
+	}
+
+	/**Loads the tables, watermark, and full query time from a prior run's snapshot so the first query can be a delta.*/
+	public void seed(GNomExSnapshot snapshot) {
+		requestTable.clear();
+		sampleTable.clear();
+		mergeRequests(new ArrayList<GNomExRequest>(Arrays.asList(snapshot.getRequests())));
+		mergeSamples(new ArrayList<GNomExSample>(Arrays.asList(snapshot.getSamples())));
+		if (snapshot.getWatermark() != -1) watermark = new Timestamp(snapshot.getWatermark());
+		lastFullQueryTime = snapshot.getLastFullQueryTime();
+		requests = fetchSortedRequests();
+		samples = fetchSortedSamples();
+	}
+
+	/**Replaces each request in the table. Returns the number of requests that were updated.*/
+	private int mergeRequests(ArrayList<GNomExRequest> newRequests) {
+		for (GNomExRequest r: newRequests) {
+			updateWatermark(r.getCreationDate());
+			updateWatermark(r.getLastModifyDate());
+			//any help or analysis still wanted? the delta query doesn't filter on these
+			if (r.isAutoAnalyze() == false && r.isRequestBioinfoAssistance() == false) requestTable.remove(r.getOriginalRequestId());
+			else requestTable.put(r.getOriginalRequestId(), r);
+		}
+		return newRequests.size();
+	}
+
+	private void mergeSamples(ArrayList<GNomExSample> newSamples) {
+		HashMap<String, ArrayList<GNomExSample>> byNumber = new HashMap<String, ArrayList<GNomExSample>>();
+		for (GNomExSample s: newSamples) {
+			updateWatermark(s.getRequestCreationDate());
+			updateWatermark(s.getRequestLastModifiedDate());
+			ArrayList<GNomExSample> al = byNumber.get(s.getRequestId());
+			if (al == null) {
+				al = new ArrayList<GNomExSample>();
+				byNumber.put(s.getRequestId(), al);
 			}
-			requestsAl.add(results);
-//Util.pl(Util.stringArrayToString(results, "\n")+"\n");
+			al.add(s);
+		}
+		sampleTable.putAll(byNumber);
+	}
+
+	private void updateWatermark(String date) {
+		if (date == null || date.equals("NA")) return;
+		try {
+			Timestamp ts = Timestamp.valueOf(date);
+			if (watermark == null || ts.after(watermark)) watermark = ts;
+		} catch (IllegalArgumentException e) {
+			if (verbose) Util.pl("\tWARNING: failed to parse a GNomEx date for the watermark '"+date+"'");
 		}
-//Util.pl("NumMainAAReq: "+requestsAl.size());
-		parseRequests(requestsAl);
-		
-	}
-
-	//not used, delete
-	private void runAutoAnalysisQueryOld(Driver d, Connection con) throws Exception{
-		String SQL = "SELECT DISTINCT "+
-				"request.number,  "+				//0
-				"request.lastModifyDate,  "+			//1
-				"appuser.email, "+					//2
-				"lab.lastname,  "+					//3
-				"lab.firstname,  "+					//4
-				"organism.organism, "+				//5
-				"application.application, "+		//7
-				"request.analysisInstructions, "+	//8   NA or freeform txt
-				"request.alignToGenomeBuild, "+     //9  NA, N, or Y
-				"request.bioInformaticsAssist, "+   //10  N or Y
-				"request.codeRequestStatus "+       //11
-				"FROM request  "+
-				"join project on project.idproject = request.idproject  "+
-				"join lab on lab.idlab = request.idlab  "+
-				"join sample on sample.idrequest = request.idrequest "+
-				"join organism on sample.idorganism = organism.idorganism "+
-				"join appuser on appuser.idappuser = request.idappuser  "+
-				"join application on application.codeapplication = request.codeapplication "+
-				"WHERE request.lastModifyDate > (select dateadd(month, -12, getdate())) "+
-				"AND (request.bioInformaticsAssist = 'Y' OR request.alignToGenomeBuild = 'Y') "+
-				"ORDER BY request.lastModifyDate; ";
-		//"AND request.codeRequestStatus = 'COMPLETE' "+
-		
-		int numReturnValues = 11;
-		
-		stmt = con.createStatement();
-		rs = stmt.executeQuery(SQL);
-		if (verbose) Util.pl("Loading results...");
-		ArrayList<String[]> requestsAl = new ArrayList<String[]>();
-		while (rs.next()) {
-			String[] results = new String[numReturnValues];
-			int resultsIndex = 0;
-			for (int i=1; i<numReturnValues+1; i++) {
-				String val = rs.getString(i);
-				if (val != null) results[resultsIndex++] = val.trim();
-				else results[resultsIndex++] = "NA";
+	}
+
+	/**Mimics the ORDER BY request.lastModifyDate of the original full query.*/
+	private GNomExRequest[] fetchSortedRequests() {
+		ArrayList<GNomExRequest> al = new ArrayList<GNomExRequest>(requestTable.values());
+		al.sort(new Comparator<GNomExRequest>() {
+			public int compare(GNomExRequest a, GNomExRequest b) {
+				return a.getLastModifyDate().compareTo(b.getLastModifyDate());
+			}
+		});
+		GNomExRequest[] toReturn = new GNomExRequest[al.size()];
+		al.toArray(toReturn);
+		return toReturn;
+	}
+
+	private GNomExSample[] fetchSortedSamples() {
+		ArrayList<GNomExSample> al = new ArrayList<GNomExSample>();
+		for (ArrayList<GNomExSample> rows: sampleTable.values()) al.addAll(rows);
+		al.sort(new Comparator<GNomExSample>() {
+			public int compare(GNomExSample a, GNomExSample b) {
+				return a.getRequestLastModifiedDate().compareTo(b.getRequestLastModifiedDate());
 			}
-			requestsAl.add(results);
-			//Util.pl(Util.stringArrayToString(results, "\n")+"\n");
+		});
+		GNomExSample[] toReturn = new GNomExSample[al.size()];
+		al.toArray(toReturn);
+		return toReturn;
+	}
+
+	/**Executes the precompiled select with either the full 12 month window or the delta since the watermark.*/
+	private ResultSet executeQuery(Connection con, String select, Timestamp since, String orderBy) throws SQLException {
+		if (since == null) return connectionManager.prepare(con, select+ fullWindow+ orderBy).executeQuery();
+		PreparedStatement ps = connectionManager.prepare(con, select+ deltaWindow+ orderBy);
+		ps.setTimestamp(1, since);
+		ps.setTimestamp(2, since);
+		return ps.executeQuery();
+	}
+
+	private ArrayList<GNomExSample> runSpeciesQuery(Timestamp since) throws Exception{
+		Connection con = connectionManager.borrow();
+		boolean ok = false;
+		try {
+			ResultSet rs = executeQuery(con, speciesSelect, since, "ORDER BY request.lastModifyDate;");
+			ArrayList<GNomExSample> samplesAl = new ArrayList<GNomExSample>();
+			while (rs.next()) samplesAl.add(new GNomExSample(rs));
+			rs.close();
+			if (verbose) Util.pl("\tLoaded "+samplesAl.size()+" sample rows");
+			ok = true;
+			return samplesAl;
+		} finally {
+			connectionManager.release(con, ok == false);
 		}
+	}
+
+	private ArrayList<GNomExRequest> runAutoAnalysisQuery(Timestamp since) throws Exception{
+		String orderBy = "ORDER BY request.lastModifyDate; ";
+		//full queries only return requests with an analysis request, deltas return all changed so the merge can drop those no longer wanted
+		if (since == null) orderBy = "AND (request.bioInformaticsAssist = 'Y' OR request.alignToGenomeBuild = 'Y') "+ orderBy;
+		orderBy = autoAnalysisHasSamples+ orderBy;
+
+		Connection con = connectionManager.borrow();
+		boolean ok = false;
+		try {
+			ResultSet rs = executeQuery(con, autoAnalysisSelect, since, orderBy);
+			ArrayList<GNomExRequest> requestsAl = new ArrayList<GNomExRequest>();
+			while (rs.next()) requestsAl.add(new GNomExRequest(rs));
+			rs.close();
+			if (verbose) Util.pl("\tLoaded "+requestsAl.size()+" request rows");
+			ok = true;
+			return requestsAl;
+		} finally {
+			connectionManager.release(con, ok == false);
+		}
+	}
 
-		parseRequests(requestsAl);
-		
+	/**Returns the trimmed value of the column or NA if null.*/
+	public static String fetchString(ResultSet rs, int column) throws SQLException {
+		String val = rs.getString(column);
+		if (val == null) return "NA";
+		return val.trim();
 	}
 
+	/**Runs the legacy per organism and the aggregated AutoAnalysis queries over the full window and prints the row counts and wall times.
+	 * Point it at a db loaded with a synthetic dataset, e.g. requests with 96 samples spread across several organisms.*/
+	public static void compareAutoAnalysisQueries(GNomExConnectionManager cm) throws Exception {
+		String filter = fullWindow+ "AND (request.bioInformaticsAssist = 'Y' OR request.alignToGenomeBuild = 'Y') ";
+		String[] names = {"Legacy DISTINCT join", "Aggregated EXISTS"};
+		String[] sqls = {legacyAutoAnalysisSelect+ filter+ "ORDER BY request.lastModifyDate;",
+				autoAnalysisSelect+ filter+ autoAnalysisHasSamples+ "ORDER BY request.lastModifyDate;"};
+		Connection con = cm.borrow();
+		try {
+			for (int i=0; i< sqls.length; i++) {
+				long start = System.currentTimeMillis();
+				ResultSet rs = cm.prepare(con, sqls[i]).executeQuery();
+				int rows = 0;
+				java.util.HashSet<String> ids = new java.util.HashSet<String>();
+				while (rs.next()) {
+					rows++;
+					ids.add(rs.getString(1));
+				}
+				rs.close();
+				Util.pl(names[i]+"\t"+rows+" rows\t"+ids.size()+" requests\t"+(System.currentTimeMillis()-start)+" ms");
+			}
+		} finally {
+			cm.release(con, false);
+		}
+	}
+
+	/**Optionally provide a connection url as the first arg.*/
 	public static void main (String[] args) {
 		//replace xxxxx pwd from https://ri-confluence.hci.utah.edu/pages/viewpage.action?pageId=38076459
 		String connectionUrl = "jdbc:sqlserver://hci-db.hci.utah.edu:1433;databaseName=gnomex;user=pipeline;password=XXXXX;encrypt=true;trustServerCertificate=true";
-		new GNomExDbQuery(connectionUrl, true);
+		if (args.length != 0) connectionUrl = args[0];
+		try {
+			GNomExConnectionManager cm = new GNomExConnectionManager(connectionUrl, 2, 600, true);
+			compareAutoAnalysisQueries(cm);
+			GNomExDbQuery q = new GNomExDbQuery(cm, 24, true);
+			//full then delta, each runs the request and species queries at once on the 2 connections
+			q.query();
+			q.query();
+			cm.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 
 	public GNomExRequest[] getRequests() {
@@ -214,11 +351,28 @@ public class GNomExDbQuery {
 		return failed;
 	}
 
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
 	public GNomExSample[] getSamples() {
 		return samples;
 	}
 
-}
+	public boolean isLastQueryWasFull() {
+		return lastQueryWasFull;
+	}
 
+	public int getNumberChangedRequests() {
+		return numberChangedRequests;
+	}
 
+	public long getLastFullQueryTime() {
+		return lastFullQueryTime;
+	}
+
+	public Timestamp getWatermark() {
+		return watermark;
+	}
 
+}
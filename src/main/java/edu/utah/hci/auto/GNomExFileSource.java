@@ -0,0 +1,125 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.util.ArrayList;
+
+/**Loads GNomEx requests and samples from tab (or .csv comma) delimited files with the same columns as the GNomExDbQuery selects,
+ * e.g. an export of the production db, for running the GNomExAutoAnalysis daemon without SQL Server. Lines starting with # are skipped.
+ * The files are only reparsed when their last modified time changes.
+ *
+ * Requests: number, createDate, email, labLastName, labFirstName, organism(s), application, analysisInstructions, alignToGenomeBuild, bioInformaticsAssist, codeRequestStatus, lastModifyDate
+ * Samples: requestNumber, sampleNumber, organism, createDate, lastModifyDate, oraCompression*/
+public class GNomExFileSource implements GNomExRequestSource {
+
+	//fields
+	private File requestFile = null;
+	private File sampleFile = null;
+	private boolean verbose = false;
+	private long requestFileTime = -1;
+	private long sampleFileTime = -1;
+	private GNomExRequest[] requests = null;
+	private GNomExSample[] samples = new GNomExSample[0];
+	private boolean failed = false;
+	private String errorMessage = null;
+
+	/**The sampleFile may be null.*/
+	public GNomExFileSource(File requestFile, File sampleFile, boolean verbose) {
+		this.requestFile = requestFile;
+		this.sampleFile = sampleFile;
+		this.verbose = verbose;
+	}
+
+	public boolean query() {
+		failed = false;
+		errorMessage = null;
+		try {
+			if (requestFile.lastModified() != requestFileTime) {
+				ArrayList<String[]> rows = loadRows(requestFile, 12);
+				requests = new GNomExRequest[rows.size()];
+				for (int i=0; i< requests.length; i++) requests[i] = new GNomExRequest(rows.get(i));
+				requestFileTime = requestFile.lastModified();
+				if (verbose) Util.pl("\tLoaded "+requests.length+" requests from "+requestFile);
+			}
+			if (sampleFile != null && sampleFile.lastModified() != sampleFileTime) {
+				ArrayList<String[]> rows = loadRows(sampleFile, 6);
+				samples = new GNomExSample[rows.size()];
+				for (int i=0; i< samples.length; i++) samples[i] = new GNomExSample(rows.get(i));
+				sampleFileTime = sampleFile.lastModified();
+				if (verbose) Util.pl("\tLoaded "+samples.length+" samples from "+sampleFile);
+			}
+		} catch (Exception e) {
+			failed = true;
+			errorMessage = e.getMessage();
+			e.printStackTrace();
+		}
+		return failed == false;
+	}
+
+	/**Loads the rows, blank fields become NA like null db values.*/
+	private static ArrayList<String[]> loadRows(File file, int numberColumns) throws Exception {
+		boolean csv = file.getName().toLowerCase().endsWith(".csv");
+		ArrayList<String[]> rows = new ArrayList<String[]>();
+		BufferedReader in = Util.fetchBufferedReader(file);
+		String line;
+		int lineNumber = 0;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().length() == 0 || line.startsWith("#")) continue;
+			String[] fields = csv ? splitCsv(line) : Util.TAB.split(line, -1);
+			if (fields.length != numberColumns) {
+				in.close();
+				throw new Exception("ERROR: expecting "+numberColumns+" columns, found "+fields.length+" on line "+lineNumber+" in "+file);
+			}
+			for (int i=0; i< fields.length; i++) {
+				fields[i] = fields[i].trim();
+				if (fields[i].length() == 0) fields[i] = "NA";
+			}
+			rows.add(fields);
+		}
+		in.close();
+		return rows;
+	}
+
+	/**Splits on commas outside of double quotes, "" is an escaped quote.*/
+	private static String[] splitCsv(String line) {
+		ArrayList<String> fields = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean inQuotes = false;
+		for (int i=0; i< line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (inQuotes && i+1 < line.length() && line.charAt(i+1) == '"') {
+					sb.append('"');
+					i++;
+				}
+				else inQuotes = !inQuotes;
+			}
+			else if (c == ',' && inQuotes == false) {
+				fields.add(sb.toString());
+				sb.setLength(0);
+			}
+			else sb.append(c);
+		}
+		fields.add(sb.toString());
+		String[] toReturn = new String[fields.size()];
+		fields.toArray(toReturn);
+		return toReturn;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public GNomExRequest[] getRequests() {
+		return requests;
+	}
+
+	public GNomExSample[] getSamples() {
+		return samples;
+	}
+}
@@ -1,22 +1,42 @@
 package edu.utah.hci.auto;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
 
 public class GNomExRequest {
 	
-	private String[] dbResults;
+	private static final FileSystemScanner autoAnalysisDirs = new FileSystemScanner(FileSystemScanner.ALL, "AutoAnalysis_", null);
+	//same as Util.extractOnlyDirectories()
+	private static final FileSystemScanner jobDirs = new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).setPattern(Pattern.compile("^\\w+.*")).setSort(true);
+	
 	private String originalRequestId;
 	private String requestIdCleaned;
 	private String creationDate;
+	private String lastModifyDate;
+	private String codeRequestStatus;
 	private String requestorEmail;
 	private String labGroupLastName;
 	private String labGroupFirstName;
 	private String organism;
+	private int numberOrganisms = 1;
 	private String libraryPreparation;
 	private String analysisNotes;
 	private boolean autoAnalyze;
@@ -24,6 +44,8 @@ public class GNomExRequest {
 	
 	private File requestDirectory = null;
 	private File[] fastqFiles = null;
+	private TreeMap<String, ArrayList<FastqName>> sampleFastqs = null;
+	private FastqDirectorySnapshot fastqSnapshot = null;
 	private int numberFastqSampleNames = -1;
 	private File autoAnalysisMainDirectory = null;
 	private File autoAnalysisJobsDirectory = null;
@@ -33,6 +55,7 @@ public class GNomExRequest {
 	private String workflowPaths = null;
 	
 	private String errorMessages = null;
+	private TreeMap<String, FastqDepthCounter.SampleDepth> sampleDepths = new TreeMap<String, FastqDepthCounter.SampleDepth>();
 
 	
 	/*
@@ -41,7 +64,7 @@ public class GNomExRequest {
 	appuser.email	//2
 	lab.lastname	//3
 	lab.firstname	//4
-	organism.organism	//5
+	organism.organism	//5  one or more sorted '; ' delimited organisms
 	application.application	//6
 	request.analysisInstructions	//7   NA or freeform txt
 	request.alignToGenomeBuild	//8  NA, N, or Y
@@ -50,28 +73,50 @@ public class GNomExRequest {
 	request.lastModifyDate	//11
 	 * */
 	public GNomExRequest (String[] fields) {
-		dbResults = fields;
+		this(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6], fields[7], fields[8], fields[9], fields[10], fields[11]);
+	}
+	
+	/**Maps the current row of the AutoAnalysis query straight into a request, nulls become NA.*/
+	public GNomExRequest (ResultSet rs) throws SQLException {
+		this(GNomExDbQuery.fetchString(rs, 1), GNomExDbQuery.fetchString(rs, 2), GNomExDbQuery.fetchString(rs, 3), GNomExDbQuery.fetchString(rs, 4), 
+				GNomExDbQuery.fetchString(rs, 5), GNomExDbQuery.fetchString(rs, 6), GNomExDbQuery.fetchString(rs, 7), GNomExDbQuery.fetchString(rs, 8), 
+				GNomExDbQuery.fetchString(rs, 9), GNomExDbQuery.fetchString(rs, 10), GNomExDbQuery.fetchString(rs, 11), GNomExDbQuery.fetchString(rs, 12));
+	}
+	
+	private GNomExRequest (String number, String createDate, String email, String labLastName, String labFirstName, String organisms, String application, 
+			String analysisInstructions, String alignToGenomeBuild, String bioInformaticsAssist, String codeRequestStatus, String lastModifyDate) {
 		//watch out for requests with numbers trailing the R, e.g. 22564R1 -> converted to just 22564R which is the dir name in the repo
-		int index = fields[0].lastIndexOf("R")+1;
-		requestIdCleaned = fields[0].substring(0, index);
-		originalRequestId = fields[0];
+		int index = number.lastIndexOf("R")+1;
+		requestIdCleaned = number.substring(0, index);
+		originalRequestId = number;
 		
-		creationDate = fields[1];
-		requestorEmail = fields[2].trim();
-		labGroupLastName = fields[3];
-		labGroupFirstName = fields[4];
-		organism = fields[5].trim();
-		libraryPreparation = fields[6].trim();
-		analysisNotes = fields[7].trim();
-		autoAnalyze = fields[8].contains("Y");
-		requestBioinfoAssistance = fields[9].contains("Y");
+		creationDate = createDate;
+		requestorEmail = email.trim();
+		labGroupLastName = labLastName;
+		labGroupFirstName = labFirstName;
+		organism = organisms.trim();
+		numberOrganisms = Util.SEMI_COLON_SPACE.split(organism).length;
+		libraryPreparation = application.trim();
+		analysisNotes = analysisInstructions.trim();
+		autoAnalyze = alignToGenomeBuild.contains("Y");
+		requestBioinfoAssistance = bioInformaticsAssist.contains("Y");
+		this.codeRequestStatus = codeRequestStatus;
+		this.lastModifyDate = lastModifyDate;
+	}
+	
+	/**Returns the 12 fields in the order of the AutoAnalysis query, e.g. for the GNomExSnapshot.*/
+	public String[] fetchDbFields() {
+		return new String[] {originalRequestId, creationDate, requestorEmail, labGroupLastName, labGroupFirstName, organism, libraryPreparation, analysisNotes,
+				autoAnalyze ? "Y" : "N", requestBioinfoAssistance ? "Y" : "N", codeRequestStatus, lastModifyDate};
 	}
 	
 	public String toString() {
-		StringBuilder sb = new StringBuilder(dbResults[0]);
-		for (int i=1; i< dbResults.length; i++) {
+		StringBuilder sb = new StringBuilder(originalRequestId);
+		String[] values = {creationDate, requestorEmail, labGroupLastName, labGroupFirstName, organism, libraryPreparation, analysisNotes,
+				Boolean.toString(autoAnalyze), Boolean.toString(requestBioinfoAssistance), codeRequestStatus, lastModifyDate};
+		for (String v: values) {
 			sb.append("\n");
-			sb.append(dbResults[i]);
+			sb.append(v);
 		}
 		return sb.toString();
 	}
@@ -86,80 +131,203 @@ public class GNomExRequest {
 		return sb.toString();
 	}
 	
-	public boolean createAutoAnalysisJobs(File chpcLinkDirectory) {
+	/**Requests are held across daemon cycles by the incremental GNomExDbQuery, this clears everything found in the prior cycle's file system checks.*/
+	public void resetCycleState() {
+		requestDirectory = null;
+		fastqFiles = null;
+		sampleFastqs = null;
+		fastqSnapshot = null;
+		numberFastqSampleNames = -1;
+		autoAnalysisMainDirectory = null;
+		autoAnalysisJobsDirectory = null;
+		jobs = null;
+		workflowPaths = null;
+		errorMessages = null;
+		sampleDepths.clear();
+	}
+	
+	/**Builds a job per sample in a hidden staging dir, the samples are validated and linked by the workers if not null, otherwise one
+	 * at a time. Once every sample is done the staging dir is renamed to AutoAnalysis_22Dec2023 and the jobs are linked into the
+	 * chpcLinkDirectory in one batch, so CHPC never sees a partial request. A failure is set aside as .AutoAnalysis_failed, replacing
+	 * any prior one so a build that keeps failing leaves just the last attempt.
+	 * Samples without sufficient reads are skipped and noted in the errorMessages in sample ID order. If the depthCounter isn't null
+	 * every fastq is counted in full, the totals go into each RUNME and a sampleReadBalance.txt report.*/
+	public boolean createAutoAnalysisJobs(final File chpcLinkDirectory, final FastqReadCache fastqReadCache, ExecutorService workers, final FastqDepthCounter depthCounter) {
+		ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+		String name = "AutoAnalysis_"+Util.getDateNoSpaces();
+		File published = new File (requestDirectory, name);
+		File staging = new File (requestDirectory, "."+name+"_staging");
+		ArrayList<File> linked = new ArrayList<File>();
+		boolean moved = false;
 		try {
-			//create the dir AutoAnalysis_22Dec2023
-			autoAnalysisMainDirectory = new File (requestDirectory, "AutoAnalysis_"+Util.getDateNoSpaces());
-			autoAnalysisMainDirectory.mkdirs();
+			//a leftover from a killed build
+			if (staging.exists()) deleteBuild(staging);
+			if (published.exists()) throw new IOException("ERROR: "+published+" already exists, can't publish over it");
+			
+			//create the staging dir .AutoAnalysis_22Dec2023_staging
+			autoAnalysisMainDirectory = staging;
 			autoAnalysisJobsDirectory = new File(autoAnalysisMainDirectory, "Jobs");
-			autoAnalysisJobsDirectory.mkdir();
+			autoAnalysisJobsDirectory.mkdirs();
 			if (autoAnalysisJobsDirectory.exists()==false) throw new IOException("ERROR: failed to create a job directory -> "+autoAnalysisJobsDirectory);
 
-			//pull sample names
-			HashSet<String> sampleIds = new HashSet<String>();
-			for (File f: fastqFiles) {
-				String[] split = Util.UNDERSCORE.split(f.getName());
-				sampleIds.add(split[0]);
+			//create sub directories, link in the fastq, write the RUNMEs, sample ID sorted so the errors come back in the same order every time
+			final ArrayList<String> sampleIds = new ArrayList<String>(sampleFastqs.keySet());
+			for (final String sampleId: sampleIds) {
+				final ArrayList<FastqName> toLink = sampleFastqs.get(sampleId);
+				Callable<String> c = new Callable<String>() {
+					public String call() throws Exception {
+						return createSampleJob(sampleId, toLink, fastqReadCache, depthCounter);
+					}
+				};
+				if (workers != null) results.add(workers.submit(c));
+				else {
+					FutureTask<String> ft = new FutureTask<String>(c);
+					ft.run();
+					results.add(ft);
+				}
 			}
 
-			//create sub directories, copy in the workflow docs, link in the fastq lines
-			ArrayList<File> toLink = new ArrayList<File>();
-			HashSet<String> sampleRepeats = new HashSet<String>();
-			for (String sampleId: sampleIds) {
-
-				// make the sub dir
-				File subDir = new File (autoAnalysisJobsDirectory, sampleId);
-				subDir.mkdir();
-
-				//link in the fastqs and parse the unique sample names
-				toLink.clear();
-				sampleRepeats.clear();
-				for (File f: fastqFiles) {
-					if (f.getName().startsWith(sampleId+ "_")) {
-						toLink.add(f);
-						//pull sample names, needed for CellRanger, HTG often adds new sequencing
-						//20758X2_230503_A00421_0548_AH7M32DRX3_S2_L002_I1_001.fastq.gz
-						//20758X2_230731_A00421_0576_BHGMFWDRX3_S2_L002_I1_001.fastq.gz
-						//   0       1      2     3      4       5
-						String[] s = Util.UNDERSCORE.split(f.getName());
-						if (s.length>=5) sampleRepeats.add(s[0]+"_"+s[1]+"_"+s[2]+"_"+s[3]+"_"+s[4]);
-						else throw new IOException ("FAILED to find at least 5 _ separated name elements in "+f.getName());
+			//wait on all of them before any clean up, the first failure is thrown
+			Exception failure = null;
+			ArrayList<String> built = new ArrayList<String>();
+			for (int i=0; i< results.size(); i++) {
+				try {
+					String message = results.get(i).get();
+					if (message == null) {
+						built.add(sampleIds.get(i));
+						continue;
 					}
-				}
-				//check they have sufficient number of reads, just skip the particular job since the others are probably OK
-				boolean fileCountOK = checkFastqsHaveSufficientReads(toLink);
-				if (fileCountOK == false) {
-					String message = "Skipping "+sampleId+", one or more of the fastq files did not have sufficient reads.";
 					if (errorMessages == null) errorMessages = message;
 					else errorMessages = errorMessages+"; "+message;
-					continue;
+				} catch (ExecutionException e) {
+					if (failure == null) failure = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
 				}
-				
-				Util.createSymbolicLinks(toLink, subDir);
-				String sampleNames= Util.stringHashToString(sampleRepeats, ",");
-				
-				//link the sub dir to the chpcLinkDirectory
-				toLink.clear();
-				toLink.add(subDir);
-				Util.createSymbolicLinks(toLink, chpcLinkDirectory);
-				
-				//add a RUNME.txt file
-				String runMe = 
-						"sampleNames\t"+sampleNames+
-						"\nworkflowPaths\t"+workflowPaths+
-						"\norganism\t"+ organism+
-						"\nlibraryPrep\t"+libraryPreparation+"\n";
-				Util.writeString(runMe, new File(subDir, "RUNME"));
-			} 
+			}
+			if (failure != null) throw failure;
+			if (depthCounter != null) writeSampleBalanceReport();
+			
+			//publish, the fastq links are absolute so they survive the rename
+			Files.move(staging.toPath(), published.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+			autoAnalysisMainDirectory = published;
+			autoAnalysisJobsDirectory = new File(autoAnalysisMainDirectory, "Jobs");
+			
+			//then hand the finished jobs to CHPC
+			for (String sampleId: built) linked.add(new File(autoAnalysisJobsDirectory, sampleId));
+			Util.createSymbolicLinks(linked, chpcLinkDirectory);
 			return true;
 		} catch (Exception e) {
 			Util.el("ERROR: making AutoAnalysis job for "+requestIdCleaned);
 			e.printStackTrace();
-			Util.deleteDirectory(autoAnalysisMainDirectory);
+			//don't pull the directory out from under workers still running
+			for (Future<String> f: results) f.cancel(false);
+			for (Future<String> f: results) try { f.get(); } catch (Exception x) {}
+			for (File job: linked) new File(chpcLinkDirectory, job.getName()).delete();
+			try {
+				if (staging.exists()) renameAway(staging);
+				if (moved && published.exists()) renameAway(published);
+			} catch (IOException x) {
+				Util.el("ERROR: failed to set aside "+autoAnalysisMainDirectory+", "+x.getMessage());
+			}
 		}
 		return false;
 	}
 	
+	/**Renames a failed build to .AutoAnalysis_failed in the request dir, hidden from the AutoAnalysis checks, replacing the last one.*/
+	private void renameAway(File dir) throws IOException {
+		File failed = new File (dir.getParentFile(), ".AutoAnalysis_failed");
+		if (failed.exists()) deleteBuild(failed);
+		Files.move(dir.toPath(), failed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		Util.el("\tSet aside "+dir+" as "+failed.getName());
+	}
+	
+	/**Deletes a build dir without following links, the fastq links are removed but never what they point to.*/
+	private static void deleteBuild(File dir) throws IOException {
+		Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+				if (e != null) throw e;
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**Makes the sample's job dir in the staging dir, checks its fastqs, links them in, and writes the RUNME. Returns a message if it was skipped for lack of reads, otherwise null.*/
+	private String createSampleJob(String sampleId, ArrayList<FastqName> fastqNames, FastqReadCache fastqReadCache, FastqDepthCounter depthCounter) throws IOException {
+		// make the sub dir
+		File subDir = new File (autoAnalysisJobsDirectory, sampleId);
+		subDir.mkdir();
+
+		//parse the unique sample names
+		HashSet<String> sampleRepeats = new HashSet<String>();
+		for (FastqName fn: fastqNames) {
+			//pull sample names, needed for CellRanger, HTG often adds new sequencing
+			//20758X2_230503_A00421_0548_AH7M32DRX3_S2_L002_I1_001.fastq.gz
+			//20758X2_230731_A00421_0576_BHGMFWDRX3_S2_L002_I1_001.fastq.gz
+			//   0       1      2     3      4       5
+			String runPrefix = fn.getRunPrefix();
+			if (runPrefix != null) sampleRepeats.add(runPrefix);
+			else throw new IOException ("FAILED to find at least 5 _ separated name elements in "+fn.getName());
+		}
+		ArrayList<File> toLink = FastqName.toFiles(fastqNames);
+		//check they have sufficient number of reads, just skip the particular job since the others are probably OK
+		boolean fileCountOK = checkFastqsHaveSufficientReads(toLink, fastqReadCache);
+		if (fileCountOK == false) return "Skipping "+sampleId+", one or more of the fastq files did not have sufficient reads.";
+		
+		//full depth, a truncated or unbalanced pair is skipped like a shallow one
+		String depth = "";
+		if (depthCounter != null) {
+			FastqDepthCounter.SampleDepth sd = null;
+			try {
+				sd = depthCounter.countSample(sampleId, toLink);
+			} catch (IOException e) {
+				return "Skipping "+sampleId+", failed to count the fastq reads, "+e.getMessage();
+			}
+			if (sd.isParityOK() == false) return "Skipping "+sampleId+", R1 and R2 read counts differ, "+sd.getR1Reads()+" vs "+sd.getR2Reads();
+			synchronized (sampleDepths) {
+				sampleDepths.put(sampleId, sd);
+			}
+			depth = "reads\t"+sd.getReads()+"\nbases\t"+sd.getBases()+"\n";
+		}
+
+		Util.createSymbolicLinks(toLink, subDir);
+		String sampleNames= Util.stringHashToString(sampleRepeats, ",");
+
+		//add a RUNME.txt file
+		String runMe = 
+				"sampleNames\t"+sampleNames+
+				"\nworkflowPaths\t"+workflowPaths+
+				"\norganism\t"+ organism+
+				"\nlibraryPrep\t"+libraryPreparation+"\n"+ depth;
+		Util.writeString(runMe, new File(subDir, "RUNME"));
+		return null;
+	}
+	
+	/**Writes the reads and bases of each sample with its fraction of the median reads so under sequenced samples stand out before launch.*/
+	private void writeSampleBalanceReport() throws IOException {
+		if (sampleDepths.size() == 0) return;
+		long[] reads = new long[sampleDepths.size()];
+		int index = 0;
+		for (FastqDepthCounter.SampleDepth sd: sampleDepths.values()) reads[index++] = sd.getReads();
+		Arrays.sort(reads);
+		double median = reads[reads.length/2];
+		StringBuilder sb = new StringBuilder("#SampleID\tReads\tBases\tR1Reads\tR2Reads\tOraFiles\tFractionOfMedianReads\n");
+		long totalReads = 0;
+		long totalBases = 0;
+		for (FastqDepthCounter.SampleDepth sd: sampleDepths.values()) {
+			sb.append(sd.getSampleId()+"\t"+sd.getReads()+"\t"+sd.getBases()+"\t"+sd.getR1Reads()+"\t"+sd.getR2Reads()+"\t"+sd.getNumberOraFiles()+"\t"+
+					(median == 0 ? "NA" : String.format("%.3f", sd.getReads()/median))+"\n");
+			totalReads += sd.getReads();
+			totalBases += sd.getBases();
+		}
+		sb.append("#Total\t"+totalReads+"\t"+totalBases+"\n");
+		Util.writeString(sb.toString(), new File(autoAnalysisMainDirectory, "sampleReadBalance.txt"));
+	}
+	
 	/**Returns false if all samples don't have just  _R1_ and _R2_ s named fastq or single ora, otherwise probably a UMI is present.*/
 	public boolean checkR1R2FastqsPerSample() {
 
@@ -167,29 +335,17 @@ public class GNomExRequest {
 			//21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L001_R2_001.fastq.gz
 			//or
 			//21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L002_R-interleaved_001.fastq.ora
-			HashMap<String, ArrayList<String>> sampleFastqs = new HashMap<String, ArrayList<String>>();
-			String fileName = null;
-			for (File f: fastqFiles) {
-				fileName = f.getName();
-				String[] split = Util.UNDERSCORE.split(fileName);
-				ArrayList<String> fileNames = sampleFastqs.get(split[0]);
-				if (fileNames == null) {
-					fileNames = new ArrayList<String>();
-					sampleFastqs.put(split[0], fileNames);
-				}
-				fileNames.add(fileName);
-			}
 			//check that each sample has the same number of _R1_ and _R2_, ora, and nothing else
-			for (ArrayList<String> al: sampleFastqs.values()) {
+			for (ArrayList<FastqName> al: sampleFastqs.values()) {
 				int r1 = 0;
 				int r2 = 0;
 				int ora = 0;
 				int rOther = 0;
 				//if (al.size()!=2) return false;
-				for (String s: al) {
-					if (s.contains("_R1_")) r1++;
-					else if (s.contains("_R2_")) r2++;
-					else if (s.contains("_R-interleaved_")) ora++;
+				for (FastqName fn: al) {
+					if (fn.isR1()) r1++;
+					else if (fn.isR2()) r2++;
+					else if (fn.isInterleaved()) ora++;
 					else rOther++;
 				}
 				//mixed num fastq or non fastq
@@ -205,38 +361,26 @@ public class GNomExRequest {
 	public int countNumberFastqSamples() {
 		//21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L001_R1_001.fastq.gz
 		//26155X1_20250425_LH00227_0152_A22Y7LTLT3_S17_L002_R-interleaved_001.fastq.ora
-		HashSet<String> sampleFastqs = new HashSet<String>();
-		String fileName = null;
-		for (File f: fastqFiles) {
-			fileName = f.getName();
-			String[] split = Util.UNDERSCORE.split(fileName);
-			sampleFastqs.add(split[0]);
-		}
 		return sampleFastqs.size();
 	}
 	
-	/**Returns false if all of the fastqs don't have at least the minimumFastqCount. Skip ora
+	/**Returns false if all of the fastqs don't have at least the minimumFastqCount. Skip ora. The cache may be null.
 	 * @throws IOException */
-	public boolean checkFastqsHaveSufficientReads(ArrayList<File> fastqFiles) throws IOException {
+	public boolean checkFastqsHaveSufficientReads(ArrayList<File> fastqFiles, FastqReadCache cache) throws IOException {
 		for (File f: fastqFiles) {
 			//skip ora
 			if (f.getName().endsWith(".ora")) continue;
-			int lineCount = 0;
-			String line = null;
-			BufferedReader in = Util.fetchBufferedReader(f);
-			while ((line = in.readLine()) !=null) {
-				lineCount++;
-				if (lineCount >= GNomExAutoAnalysis.minimumFastqFileLineCount) break;
+			if (cache != null) {
+				if (cache.hasSufficientReads(f, GNomExAutoAnalysis.minimumFastqFileLineCount) == false) return false;
 			}
-			in.close();
-			if (lineCount < GNomExAutoAnalysis.minimumFastqFileLineCount) return false;	
+			else if (FastqReadCache.countLines(f, GNomExAutoAnalysis.minimumFastqFileLineCount) < GNomExAutoAnalysis.minimumFastqFileLineCount) return false;
 		}
 		return true;
 	}
 
 	
-	public boolean checkForAutoAnalysis() {
-		File[] dirs = Util.extractFilesPrefix(requestDirectory, "AutoAnalysis_");
+	public boolean checkForAutoAnalysis() throws IOException {
+		File[] dirs = autoAnalysisDirs.listArray(requestDirectory);
 		if (dirs.length == 0) return false;
 		else if (dirs.length == 1) autoAnalysisMainDirectory = dirs[0];
 		else {
@@ -255,47 +399,51 @@ public class GNomExRequest {
 		File jd = new File(autoAnalysisMainDirectory, "Jobs");
 		if (jd.exists()) {
 			autoAnalysisJobsDirectory = jd;
-			jobs = Util.extractOnlyDirectories(jd);
+			jobs = jobDirs.listArray(jd);
+			if (jobs.length == 0) jobs = null;
 		}
 		
 		return true;
 	}
 	
-	public boolean checkFastq() {
+	/**Checks the Fastq dir, listed once per cycle, later calls in the same cycle reuse the snapshot.*/
+	public boolean checkFastq() throws IOException {
 
-		File fastqDirectory = new File(requestDirectory, "Fastq");	
+		if (fastqSnapshot == null) fastqSnapshot = FastqDirectorySnapshot.scan(new File(requestDirectory, "Fastq"));
 
-		if (fastqDirectory.exists() == false) return false;
+		if (fastqSnapshot.exists() == false) return false;
 
 		//contains a file with md5 in the name
-		File[] allFiles = Util.extractFiles(fastqDirectory);
-		boolean foundMd5 = false;
-		for (File f: allFiles) {		
-			if (f.getName().contains("md5")) {
-				foundMd5 = true;
-				break;
-			}
-		}	
-		if (foundMd5 == false) return false;
+		if (fastqSnapshot.containsName("md5") == false) return false;
 
 		//find the fastq files (gz or ora) 
-		File[][] seqFiles = new File[2][];
-		seqFiles[0] = Util.extractFiles(fastqDirectory, "q.gz");
-		seqFiles[1] = Util.extractFiles(fastqDirectory,".ora");
-		fastqFiles = Util.collapseFileArray(seqFiles);
+		fastqFiles = fastqSnapshot.fetchFiles("q.gz", ".ora");
 		
 		//any fastqs? might be deleted
 		if (fastqFiles.length == 0) return false;
 		
 		//check age, don't want to work on very recent fastqs since these might be in process of being copied over from demux
 		long currentTime = System.currentTimeMillis() - 3600000;  //1hr
-		for (File f: fastqFiles) if ((currentTime - f.lastModified())<0) return false;
+		if (fastqSnapshot.fetchNewestModified("q.gz", ".ora") > currentTime) return false;
 		
-		//count fastq sample names
+		//parse the names once, every check after this uses the index
+		if (sampleFastqs == null) sampleFastqs = FastqName.indexBySample(fastqFiles);
 		numberFastqSampleNames = countNumberFastqSamples();
 		return true;
 	}
 	
+	/**True if the Fastq dir is gone or has no fastq or ora, e.g. archived, not just too new or waiting on the md5. Call after checkFastq().*/
+	public boolean isFastqMissing() {
+		if (fastqSnapshot == null || fastqSnapshot.exists() == false) return true;
+		return fastqSnapshot.fetchFiles("q.gz", ".ora").length == 0;
+	}
+	
+	/**Most recent last modified time of the fastq and ora files from this cycle's snapshot, 0 if not checked.*/
+	public long fetchNewestFastqTime() {
+		if (fastqSnapshot == null) return 0;
+		return fastqSnapshot.fetchNewestModified("q.gz", ".ora");
+	}
+	
 	public String getJiraTicketData() {
 		/*
 		{"fields": {"project": {"id": "14900"},
@@ -346,6 +494,14 @@ public class GNomExRequest {
 		return creationDate;
 	}
 
+	public String getCodeRequestStatus() {
+		return codeRequestStatus;
+	}
+
+	public String getLastModifyDate() {
+		return lastModifyDate;
+	}
+
 	public String getRequestorEmail() {
 		return requestorEmail;
 	}
@@ -362,6 +518,11 @@ public class GNomExRequest {
 		return organism;
 	}
 
+	/**Returns true if the samples in this request span more than one organism.*/
+	public boolean isMultipleOrganisms() {
+		return numberOrganisms > 1;
+	}
+
 	public String getLibraryPreparation() {
 		return libraryPreparation;
 	}
@@ -374,6 +535,15 @@ public class GNomExRequest {
 		return requestDirectory;
 	}
 
+	/**Uses a listing from the RepositoryFastqIndex instead of listing the Fastq dir in checkFastq().*/
+	public void setFastqSnapshot(FastqDirectorySnapshot fastqSnapshot) {
+		this.fastqSnapshot = fastqSnapshot;
+	}
+
+	public FastqDirectorySnapshot getFastqSnapshot() {
+		return fastqSnapshot;
+	}
+
 	public void setRequestDirectory(File requestDirectory) {
 		this.requestDirectory = requestDirectory;
 	}
@@ -0,0 +1,19 @@
+package edu.utah.hci.auto;
+
+/**Supplies the GNomEx requests and samples the GNomExAutoAnalysis daemon works on each cycle, e.g. the GNomEx db, 
+ * exported tab or comma delimited files, or a generated in memory set for benchmarking.*/
+public interface GNomExRequestSource {
+
+	/**Fetches or refreshes the requests and samples. Returns false if this failed, see getErrorMessage().*/
+	public boolean query();
+
+	public boolean isFailed();
+
+	public String getErrorMessage();
+
+	/**AutoAnalysis requests, one per request number, ordered by last modified date.*/
+	public GNomExRequest[] getRequests();
+
+	/**All of the samples for demux ORA compression.*/
+	public GNomExSample[] getSamples();
+}
@@ -1,5 +1,8 @@
 package edu.utah.hci.auto;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 public class GNomExSample {
 	
 	//fields
@@ -12,12 +15,27 @@ public class GNomExSample {
 	private boolean oraCompress = true;
 	
 	public GNomExSample(String[] results) {
-		requestId = results[0];
-		sampleId = results[1];
-		species = results[2];
-		requestCreationDate = results[3];
-		requestLastModifiedDate = results[4];
-		if (results[5].equals("N")) oraCompress = false;
+		this(results[0], results[1], results[2], results[3], results[4], results[5]);
+	}
+	
+	/**Maps the current row of the species query straight into a sample, nulls become NA.*/
+	public GNomExSample(ResultSet rs) throws SQLException {
+		this(GNomExDbQuery.fetchString(rs, 1), GNomExDbQuery.fetchString(rs, 2), GNomExDbQuery.fetchString(rs, 3), 
+				GNomExDbQuery.fetchString(rs, 4), GNomExDbQuery.fetchString(rs, 5), GNomExDbQuery.fetchString(rs, 6));
+	}
+	
+	private GNomExSample(String requestId, String sampleId, String species, String requestCreationDate, String requestLastModifiedDate, String oraCompression) {
+		this.requestId = requestId;
+		this.sampleId = sampleId;
+		this.species = species;
+		this.requestCreationDate = requestCreationDate;
+		this.requestLastModifiedDate = requestLastModifiedDate;
+		if (oraCompression.equals("N")) oraCompress = false;
+	}
+	
+	/**Returns the 6 fields in the order of the species query, e.g. for the GNomExSnapshot.*/
+	public String[] fetchDbFields() {
+		return new String[] {requestId, sampleId, species, requestCreationDate, requestLastModifiedDate, oraCompress ? "Y" : "N"};
 	}
 	
 	public String toString() {
@@ -47,6 +65,18 @@ public class GNomExSample {
 		return requestCreationDate;
 	}
 
+	public String getRequestLastModifiedDate() {
+		return requestLastModifiedDate;
+	}
+
+	public String getOraSpecies() {
+		return oraSpecies;
+	}
+
+	public boolean isOraCompress() {
+		return oraCompress;
+	}
+
 	public void setOraSpecies(String oraSpecies) {
 		this.oraSpecies = oraSpecies;
 		
@@ -0,0 +1,139 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**Compact gzipped binary snapshot of the last good GNomExDbQuery. Lets the GNomExAutoAnalysis daemon keep checking for completed jobs,
+ * run MultiQC, and email clients while the GNomEx db is down, and seeds the incremental query on restart so the daemon doesn't need
+ * a full 12 month query to warm up.*/
+public class GNomExSnapshot implements GNomExRequestSource {
+
+	private static final int magic = 0x41415348;
+	private static final int version = 1;
+
+	//fields
+	private File snapshotFile = null;
+	private long fileTime = -1;
+	private long savedTime = 0;
+	private long lastFullQueryTime = 0;
+	private long watermark = -1;
+	private GNomExRequest[] requests = null;
+	private GNomExSample[] samples = null;
+	private boolean failed = false;
+	private String errorMessage = null;
+
+	public GNomExSnapshot(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**Loads the snapshot if it changed since the last call. Returns false if missing or unreadable.*/
+	public boolean query() {
+		failed = false;
+		errorMessage = null;
+		if (snapshotFile.exists() == false) {
+			failed = true;
+			errorMessage = "No GNomEx snapshot found, "+snapshotFile;
+			return false;
+		}
+		if (snapshotFile.lastModified() == fileTime) return true;
+		DataInputStream in = null;
+		try {
+			long start = System.currentTimeMillis();
+			in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile), 65536)));
+			if (in.readInt() != magic || in.readInt() != version) throw new IOException("Not a version "+version+" GNomEx snapshot, "+snapshotFile);
+			savedTime = in.readLong();
+			lastFullQueryTime = in.readLong();
+			watermark = in.readLong();
+			requests = new GNomExRequest[in.readInt()];
+			for (int i=0; i< requests.length; i++) requests[i] = new GNomExRequest(readFields(in));
+			samples = new GNomExSample[in.readInt()];
+			for (int i=0; i< samples.length; i++) samples[i] = new GNomExSample(readFields(in));
+			fileTime = snapshotFile.lastModified();
+			Util.pl("\tLoaded GNomEx snapshot from "+new java.util.Date(savedTime)+", "+requests.length+" requests, "+samples.length+" samples in "+
+					(System.currentTimeMillis()-start)+" ms");
+		} catch (Exception e) {
+			failed = true;
+			errorMessage = "Failed to load the GNomEx snapshot "+snapshotFile+" "+e.getMessage();
+			e.printStackTrace();
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+		return failed == false;
+	}
+
+	/**Writes the requests and samples to a tmp file then renames it over the snapshot. A watermark of -1 means none.*/
+	public static void save(File snapshotFile, GNomExRequest[] requests, GNomExSample[] samples, long lastFullQueryTime, long watermark) throws IOException {
+		File tmp = new File(snapshotFile.getParentFile(), "tmp_"+snapshotFile.getName());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp), 65536)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeLong(System.currentTimeMillis());
+			out.writeLong(lastFullQueryTime);
+			out.writeLong(watermark);
+			out.writeInt(requests.length);
+			for (GNomExRequest r: requests) writeFields(out, r.fetchDbFields());
+			out.writeInt(samples.length);
+			for (GNomExSample s: samples) writeFields(out, s.fetchDbFields());
+		} finally {
+			out.close();
+		}
+		if (tmp.renameTo(snapshotFile) == false) throw new IOException("Failed to rename "+tmp+" to "+snapshotFile);
+	}
+
+	private static void writeFields(DataOutputStream out, String[] fields) throws IOException {
+		out.writeByte(fields.length);
+		for (String f: fields) {
+			byte[] b = f.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	private static String[] readFields(DataInputStream in) throws IOException {
+		String[] fields = new String[in.readByte()];
+		for (int i=0; i< fields.length; i++) {
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			fields[i] = new String(b, StandardCharsets.UTF_8);
+		}
+		return fields;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public GNomExRequest[] getRequests() {
+		return requests;
+	}
+
+	public GNomExSample[] getSamples() {
+		return samples;
+	}
+
+	public long getSavedTime() {
+		return savedTime;
+	}
+
+	public long getLastFullQueryTime() {
+		return lastFullQueryTime;
+	}
+
+	public long getWatermark() {
+		return watermark;
+	}
+}
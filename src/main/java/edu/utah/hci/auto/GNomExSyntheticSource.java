@@ -0,0 +1,110 @@
+package edu.utah.hci.auto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**Generates an in memory set of GNomEx requests and samples for benchmarking the GNomExAutoAnalysis daemon at scale.
+ * Every request is created this year with a Human_SyntheticLibraryPrep AutoAnalysis, see writeMockRepository() to lay out
+ * matching Fastq directories.*/
+public class GNomExSyntheticSource implements GNomExRequestSource {
+
+	public static final String organism = "Human";
+	public static final String libraryPrep = "Synthetic Library Prep";
+	public static final int firstRequestNumber = 10000;
+
+	//fields
+	private int numberRequests;
+	private int samplesPerRequest;
+	private GNomExRequest[] requests = null;
+	private GNomExSample[] samples = null;
+	private String createDate = null;
+
+	public GNomExSyntheticSource(int numberRequests, int samplesPerRequest) {
+		this.numberRequests = numberRequests;
+		this.samplesPerRequest = samplesPerRequest;
+		//two hours ago so nothing looks like it is still being copied
+		createDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(System.currentTimeMillis() - 2*3600000));
+		generate();
+	}
+
+	private void generate() {
+		requests = new GNomExRequest[numberRequests];
+		samples = new GNomExSample[numberRequests * samplesPerRequest];
+		int sampleIndex = 0;
+		for (int i=0; i< numberRequests; i++) {
+			String number = (firstRequestNumber+i)+"R";
+			requests[i] = new GNomExRequest(new String[] {number, createDate, "synthetic@hci.utah.edu", "Lab"+(i%50), "Synthetic", organism,
+					libraryPrep, "NA", "Y", "N", "COMPLETE", createDate});
+			for (int j=1; j<= samplesPerRequest; j++) {
+				samples[sampleIndex++] = new GNomExSample(new String[] {number, sampleId(i, j), organism, createDate, createDate, "Y"});
+			}
+		}
+	}
+
+	private static String sampleId(int requestIndex, int sampleNumber) {
+		return (firstRequestNumber+requestIndex)+"X"+sampleNumber;
+	}
+
+	/**Creates yearDir/xxxxxR/Fastq/ with an md5 file and paired fastq.gz files per sample holding just enough reads to pass the
+	 * GNomExAutoAnalysis.minimumFastqFileLineCount check. Existing request directories are left as is.*/
+	public void writeMockRepository(File yearDir) throws IOException {
+		byte[] fastq = makeFastqGz(GNomExAutoAnalysis.minimumFastqFileLineCount/4);
+		long oldTime = System.currentTimeMillis() - 2*3600000;
+		for (int i=0; i< numberRequests; i++) {
+			File fastqDir = new File(yearDir, (firstRequestNumber+i)+"R/Fastq");
+			if (fastqDir.exists()) continue;
+			if (fastqDir.mkdirs() == false) throw new IOException("Failed to make "+fastqDir);
+			StringBuilder md5 = new StringBuilder();
+			for (int j=1; j<= samplesPerRequest; j++) {
+				//21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L001_R1_001.fastq.gz
+				for (int r=1; r<3; r++) {
+					String name = sampleId(i, j)+"_20240101_LH00227_0016_B227FWCLT3_S"+j+"_L001_R"+r+"_001.fastq.gz";
+					File f = new File(fastqDir, name);
+					FileOutputStream out = new FileOutputStream(f);
+					out.write(fastq);
+					out.close();
+					f.setLastModified(oldTime);
+					md5.append("d41d8cd98f00b204e9800998ecf8427e  "+name+"\n");
+				}
+			}
+			File md5File = new File(fastqDir, "md5.txt");
+			Util.writeString(md5.toString(), md5File);
+			md5File.setLastModified(oldTime);
+		}
+	}
+
+	private static byte[] makeFastqGz(int numberReads) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(bytes);
+		byte[] read = "@synthetic\nACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTAC\n+\nIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII\n".getBytes();
+		for (int i=0; i< numberReads; i++) gz.write(read);
+		gz.close();
+		return bytes.toByteArray();
+	}
+
+	/**Nothing to fetch, always succeeds.*/
+	public boolean query() {
+		return true;
+	}
+
+	public boolean isFailed() {
+		return false;
+	}
+
+	public String getErrorMessage() {
+		return null;
+	}
+
+	public GNomExRequest[] getRequests() {
+		return requests;
+	}
+
+	public GNomExSample[] getSamples() {
+		return samples;
+	}
+}
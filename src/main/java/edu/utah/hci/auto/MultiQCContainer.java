@@ -0,0 +1,125 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**One long lived ewels/multiqc container for the life of the daemon so each report is a docker exec into a running container instead
+ * of a docker run that creates, mounts, and tears down a new one. The Repository and the working dir are mounted at their own paths
+ * as the daemon's user, the same as the per request docker run. A health check, the container is running and multiqc answers, is
+ * made before each MultiQC stage and the container is replaced if it fails. Fixed name, so a container left by a crashed daemon is
+ * removed on start. Thread safe.*/
+public class MultiQCContainer {
+
+	public static final String image = "ewels/multiqc";
+	private static final String name = "gnomex_autoanalysis_multiqc";
+	private static final long commandTimeoutSeconds = 120;
+	//consecutive failed starts before giving up until the next stage
+	private static final int maxStartTries = 2;
+
+	//fields
+	private String[] mountPaths = null;
+	private boolean running = false;
+	private int numberStarts = 0;
+	private int numberHealthChecks = 0;
+
+	/**Mounts each of the directories, e.g. the Repository and the working dir, nothing is started until ensureRunning().*/
+	public MultiQCContainer(File... mounts) throws IOException {
+		mountPaths = new String[mounts.length];
+		for (int i=0; i< mounts.length; i++) mountPaths[i] = mounts[i].getCanonicalPath();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				remove();
+			}
+		});
+	}
+
+	/**Health checks the container, starting or replacing it as needed. Returns false if it couldn't be started, use docker run.*/
+	public synchronized boolean ensureRunning() {
+		numberHealthChecks++;
+		if (running && isHealthy()) return true;
+		if (running) Util.pl("WARNING: the MultiQC container failed its health check, restarting it");
+		running = false;
+		for (int i=0; i< maxStartTries; i++) {
+			remove();
+			if (start() && isHealthy()) {
+				running = true;
+				numberStarts++;
+				return true;
+			}
+		}
+		Util.pl("WARNING: failed to start the MultiQC container, running MultiQC with docker run this cycle");
+		remove();
+		return false;
+	}
+
+	/**True if the container is up and the path is under one of its mounts.*/
+	public synchronized boolean canRun(String canonicalPath) {
+		if (running == false) return false;
+		for (String m: mountPaths) if (canonicalPath.equals(m) || canonicalPath.startsWith(m+"/")) return true;
+		return false;
+	}
+
+	/**The command to prefix a multiqc call with, e.g. docker exec gnomex_autoanalysis_multiqc multiqc --outdir ...*/
+	public String fetchExecCommand() {
+		return "docker exec "+name;
+	}
+
+	/**Health checks the container now, e.g. after a report failed, if it fails docker run is used until ensureRunning() restarts it.*/
+	public synchronized void recheckHealth() {
+		if (running && isHealthy() == false) {
+			Util.pl("WARNING: the MultiQC container failed its health check, using docker run until it is restarted");
+			running = false;
+		}
+	}
+
+	private boolean start() {
+		StringBuilder sb = new StringBuilder("docker run -d --rm --init --name "+name+" --user $(id -u):$(id -g)");
+		for (String m: mountPaths) sb.append(" -v "+m+":"+m);
+		sb.append(" --entrypoint sleep "+image+" infinity");
+		return execute(sb.toString());
+	}
+
+	private boolean isHealthy() {
+		return execute("[ \"$(docker inspect -f '{{.State.Running}}' "+name+")\" = true ] && docker exec "+name+" multiqc --version");
+	}
+
+	/**Stops and removes the container, ok if there isn't one.*/
+	private void remove() {
+		execute("docker rm -f "+name+" > /dev/null 2>&1 || true");
+	}
+
+	/**Runs the bash command, true if it exits 0 within the timeout. Output goes to a tmp file so a hung docker can't block the
+	 * read, it is only logged on failure.*/
+	private static boolean execute(String cmd) {
+		Process proc = null;
+		File log = null;
+		try {
+			log = File.createTempFile("multiQCContainer", ".log");
+			ProcessBuilder pb = new ProcessBuilder("bash", "-c", cmd);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(log);
+			proc = pb.start();
+			if (proc.waitFor(commandTimeoutSeconds, TimeUnit.SECONDS) == false) {
+				Util.pl("WARNING: timed out running "+cmd);
+				return false;
+			}
+			if (proc.exitValue() == 0) return true;
+			Util.pl("WARNING: non zero exit code from "+cmd+"\n"+Util.stringArrayToString(Util.loadFile(log), "\n"));
+		} catch (Exception e) {
+			Util.pl("WARNING: failed to run "+cmd+" "+e.getMessage());
+		} finally {
+			if (proc != null) proc.destroyForcibly();
+			if (log != null) log.delete();
+		}
+		return false;
+	}
+
+	/**Container starts and health checks since the last call, for the cycle log.*/
+	public synchronized String fetchAndResetStats() {
+		String s = (running ? "running" : "stopped")+", "+numberStarts+" starts, "+numberHealthChecks+" health checks";
+		numberStarts = 0;
+		numberHealthChecks = 0;
+		return s;
+	}
+}
@@ -0,0 +1,111 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**The files MultiQC should parse for a workflow, from the glob patterns in the 5th column of the supportedOrgLibWfConfigFile, e.g.
+ * Logs/*.log; QC/*.json.gz; CellRanger/outs/metrics_summary.csv. Patterns are relative to each sample's job dir. The walk only goes into
+ * dirs that can still match a pattern, so a CellRanger outs tree or the alignment dir is never listed unless a pattern reaches into it,
+ * the list then scales with the logs not the output. Written for multiqc --file-list. Thread safe once made.*/
+public class MultiQCFileList {
+
+	private static final FileSystemScanner jobDirScanner = new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).setSort(true);
+
+	//fields
+	private String patterns = null;
+	private PathMatcher[] matchers = null;
+	//per pattern, a matcher for each path segment, null for a ** segment
+	private PathMatcher[][] segmentMatchers = null;
+
+	/**Semi colon delimited glob patterns, see java.nio.file.FileSystem.getPathMatcher().*/
+	public MultiQCFileList(String patterns) {
+		this.patterns = patterns;
+		FileSystem fs = FileSystems.getDefault();
+		String[] p = Util.SEMI_COLON_SPACE.split(patterns.trim());
+		matchers = new PathMatcher[p.length];
+		segmentMatchers = new PathMatcher[p.length][];
+		for (int i=0; i< p.length; i++) {
+			matchers[i] = fs.getPathMatcher("glob:"+p[i]);
+			String[] segments = p[i].split("/");
+			segmentMatchers[i] = new PathMatcher[segments.length];
+			for (int j=0; j< segments.length; j++) {
+				if (segments[j].contains("**") == false) segmentMatchers[i][j] = fs.getPathMatcher("glob:"+segments[j]);
+			}
+		}
+	}
+
+	/**Files matching the patterns in each job dir in the jobsDir, sorted by job.*/
+	public ArrayList<File> list(File jobsDir) throws IOException {
+		final ArrayList<File> files = new ArrayList<File>();
+		for (File job: jobDirScanner.list(jobsDir)) {
+			final Path root = job.toPath();
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (dir.equals(root) || couldMatch(root.relativize(dir))) return FileVisitResult.CONTINUE;
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile() && matches(root.relativize(file))) files.add(file.toFile());
+					return FileVisitResult.CONTINUE;
+				}
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					//deleted while walking or a dead link
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		return files;
+	}
+
+	/**Lists the files and writes them one per line, returns the number written.*/
+	public int write(File jobsDir, File fileList) throws IOException {
+		ArrayList<File> files = list(jobsDir);
+		PrintWriter out = new PrintWriter(fileList);
+		for (File f: files) out.println(f.getPath());
+		out.close();
+		return files.size();
+	}
+
+	private boolean matches(Path relative) {
+		for (PathMatcher m: matchers) if (m.matches(relative)) return true;
+		return false;
+	}
+
+	/**True if a file under the relative dir could match a pattern, each dir segment must match the pattern's segment up to a **.*/
+	private boolean couldMatch(Path relativeDir) {
+		int num = relativeDir.getNameCount();
+		for (PathMatcher[] segments: segmentMatchers) {
+			boolean ok = true;
+			for (int i=0; i< num; i++) {
+				if (i < segments.length && segments[i] == null) break;
+				//a file must still follow the dir
+				if (i >= segments.length - 1) {
+					ok = false;
+					break;
+				}
+				if (segments[i].matches(relativeDir.getName(i)) == false) {
+					ok = false;
+					break;
+				}
+			}
+			if (ok) return true;
+		}
+		return false;
+	}
+
+	public String getPatterns() {
+		return patterns;
+	}
+}
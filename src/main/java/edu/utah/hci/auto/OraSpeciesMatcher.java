@@ -1,8 +1,11 @@
 package edu.utah.hci.auto;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**Maps free text GNomEx organisms to DRAGEN ORA reference species, the first matching rule wins. Results are memoized by the raw
+ * organism so each distinct organism is only matched once, thread safe.*/
 public class OraSpeciesMatcher {
 
 
@@ -34,6 +37,9 @@ public class OraSpeciesMatcher {
 	
 	private Pattern[] patterns = null;
 	private String[] species = null;
+	private ConcurrentHashMap<String, String> memo = new ConcurrentHashMap<String, String>();
+	//GNomEx organisms are a small set, this just bounds junk
+	private static final int maxMemoSize = 10000;
 	
 	public OraSpeciesMatcher() {
 		patterns = new Pattern[(patternsToMakeSpecies.length/2)];
@@ -50,6 +56,16 @@ public class OraSpeciesMatcher {
 	}
 	/**@return the species name to use in '--ora-compression-species' argument or "Not Supported"*/
 	public String fetchOraSpecies(String gnomexOrganism) {
+		String oraSpecies = memo.get(gnomexOrganism);
+		if (oraSpecies != null) return oraSpecies;
+		oraSpecies = fetchOraSpeciesUncached(gnomexOrganism);
+		if (memo.size() >= maxMemoSize) memo.clear();
+		memo.put(gnomexOrganism, oraSpecies);
+		return oraSpecies;
+	}
+	
+	/**Rule by rule match without the memo, also for benchmarking.*/
+	String fetchOraSpeciesUncached(String gnomexOrganism) {
 		Matcher mat = null;
 		String toTest = Util.WHITE_SPACE.matcher(gnomexOrganism).replaceAll("");
 		for (int i=0; i< patterns.length; i++) {
@@ -0,0 +1,69 @@
+package edu.utah.hci.auto;
+
+import java.util.Random;
+
+/**Times OraSpeciesMatcher over a GNomEx like organism mix, the rule by rule match with and without the memo. Each mode is warmed up then timed over several rounds, best round reported.
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.OraSpeciesMatcherBenchmark numberSamples rounds*/
+public class OraSpeciesMatcherBenchmark {
+
+	//organism and relative frequency, roughly a year of GNomEx samples, mostly human and mouse with a long tail
+	private static final String[] organisms = {
+			"Human", "55", "Homo sapiens", "8", "Mouse", "18", "Mus musculus", "4", "Human and mouse", "1", "Rat", "3", "Rattus norvegicus", "1",
+			"Zebrafish", "3", "Danio rerio", "1", "C. elegans", "1", "Worm", "1", "Arabidopsis", "1", "Pig", "1", "Cow", "1", "Chicken", "1",
+			"Drosophila melanogaster", "2", "Yeast", "2", "E. coli", "1", "Other", "2", "Mixed Species", "1", "Rhesus macaque", "1", "Xenopus", "1"
+	};
+
+	private static volatile String sink = null;
+
+	public static void main(String[] args) {
+		int numberSamples = 1000000;
+		int rounds = 5;
+		if (args.length > 0) numberSamples = Integer.parseInt(args[0]);
+		if (args.length > 1) rounds = Integer.parseInt(args[1]);
+
+		OraSpeciesMatcher osm = new OraSpeciesMatcher();
+		String[] samples = makeSamples(numberSamples);
+
+		//check they agree before timing
+		for (int i=0; i< organisms.length; i+=2) {
+			String a = osm.fetchOraSpecies(organisms[i]);
+			String b = osm.fetchOraSpeciesUncached(organisms[i]);
+			if (a.equals(b) == false) Util.printErrAndExit("ERROR: "+organisms[i]+" memo "+a+" != uncached "+b);
+		}
+
+		Util.pl("\nBenchmarking "+numberSamples+" samples, best of "+rounds+" rounds");
+		for (int mode=0; mode< 2; mode++) {
+			long best = Long.MAX_VALUE;
+			//first round is warm up
+			for (int r=0; r<= rounds; r++) {
+				long start = System.nanoTime();
+				if (mode == 0) for (String s: samples) sink = osm.fetchOraSpeciesUncached(s);
+				else for (String s: samples) sink = osm.fetchOraSpecies(s);
+				long time = System.nanoTime() - start;
+				if (r != 0 && time < best) best = time;
+			}
+			String name = mode == 0 ? "uncached" : "memo";
+			Util.pl(name+"\t"+(best/1000000)+" ms\t"+String.format("%.1f", (double)best/numberSamples)+" ns/sample");
+		}
+	}
+
+	private static String[] makeSamples(int numberSamples) {
+		int total = 0;
+		for (int i=1; i< organisms.length; i+=2) total += Integer.parseInt(organisms[i]);
+		Random random = new Random(42);
+		String[] samples = new String[numberSamples];
+		for (int i=0; i< numberSamples; i++) {
+			int pick = random.nextInt(total);
+			for (int j=0; j< organisms.length; j+=2) {
+				pick -= Integer.parseInt(organisms[j+1]);
+				if (pick < 0) {
+					//new String so the memo can't lean on identity
+					samples[i] = new String(organisms[j]);
+					break;
+				}
+			}
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,196 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**Persistent index of the Repository/{year}/{requestId}/Fastq listings so GNomExAutoAnalysis checks run in memory. Each cycle a year
+ * dir or Fastq dir costs one stat, it is only listed again if its last modified time changed. Since writing into an existing file
+ * doesn't touch the dir time, a Fastq listing with anything modified in the last recentHours, or listed within a few seconds of the dir
+ * changing, is treated as unsettled and listed again each cycle until it is old enough. Entries not used for maxIdleDays are dropped.
+ * Thread safe.*/
+public class RepositoryFastqIndex {
+
+	private static final int magic = 0x41415249;
+	private static final int version = 1;
+	private static final long recentHours = 2;
+	private static final long maxIdleDays = 14;
+	//dir times can be to the second, a change in the same second as the listing can't be seen
+	private static final long clockSlop = 2000;
+
+	//fields
+	private File indexFile = null;
+	private HashMap<String, YearEntry> years = new HashMap<String, YearEntry>();
+	private HashMap<String, FastqEntry> fastqDirs = new HashMap<String, FastqEntry>();
+	private boolean dirty = false;
+	private int numberListed = 0;
+	private int numberReused = 0;
+
+	/**Loads the indexFile if it exists, a corrupt one is just ignored.*/
+	public RepositoryFastqIndex(File indexFile) {
+		this.indexFile = indexFile;
+		if (indexFile.exists()) load();
+	}
+
+	/**True if the request dir is in the year dir, the year dir is only listed again if it changed.*/
+	public synchronized boolean requestDirectoryExists(File yearDir, String requestId) throws IOException {
+		String path = yearDir.getPath();
+		long time = yearDir.lastModified();
+		YearEntry ye = years.get(path);
+		if (ye == null || ye.dirTime != time || ye.listedTime - ye.dirTime < clockSlop) {
+			ye = new YearEntry();
+			ye.dirTime = time;
+			ye.listedTime = System.currentTimeMillis();
+			DirectoryStream<Path> ds = null;
+			try {
+				ds = Files.newDirectoryStream(yearDir.toPath());
+				for (Path p: ds) ye.names.add(p.getFileName().toString());
+			} catch (NoSuchFileException e) {
+				//empty
+			} finally {
+				if (ds != null) ds.close();
+			}
+			years.put(path, ye);
+			dirty = true;
+		}
+		return ye.names.contains(requestId);
+	}
+
+	/**Returns the Fastq dir listing for the request, listing it again only if it changed or hasn't settled.*/
+	public FastqDirectorySnapshot fetchFastqSnapshot(File requestDir) throws IOException {
+		File fastqDir = new File(requestDir, "Fastq");
+		String path = fastqDir.getPath();
+		long time = fastqDir.lastModified();
+		FastqEntry fe = null;
+		synchronized (this) {
+			fe = fastqDirs.get(path);
+			if (fe != null && fe.settled && fe.dirTime == time) {
+				fe.lastUsed = System.currentTimeMillis();
+				numberReused++;
+				return fe.snapshot;
+			}
+			numberListed++;
+		}
+		fe = new FastqEntry();
+		fe.dirTime = time;
+		fe.snapshot = FastqDirectorySnapshot.scan(fastqDir);
+		fe.lastUsed = System.currentTimeMillis();
+		fe.settled = fe.lastUsed - time > clockSlop && fe.lastUsed - fe.snapshot.fetchNewestModified() > recentHours * 3600000l;
+		synchronized (this) {
+			fastqDirs.put(path, fe);
+			dirty = true;
+		}
+		return fe.snapshot;
+	}
+
+	/**Writes the index if anything changed, via a tmp file and rename.*/
+	public synchronized void save() throws IOException {
+		long oldest = System.currentTimeMillis() - maxIdleDays * 24l * 3600000l;
+		Iterator<FastqEntry> it = fastqDirs.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().lastUsed < oldest) {
+				it.remove();
+				dirty = true;
+			}
+		}
+		if (dirty == false) return;
+		File tmp = new File(indexFile.getParentFile(), "tmp_"+indexFile.getName());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp), 65536)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(years.size());
+			for (String path: years.keySet()) {
+				YearEntry ye = years.get(path);
+				out.writeUTF(path);
+				out.writeLong(ye.dirTime);
+				out.writeLong(ye.listedTime);
+				out.writeInt(ye.names.size());
+				for (String n: ye.names) out.writeUTF(n);
+			}
+			out.writeInt(fastqDirs.size());
+			for (String path: fastqDirs.keySet()) {
+				FastqEntry fe = fastqDirs.get(path);
+				out.writeUTF(path);
+				out.writeLong(fe.dirTime);
+				out.writeLong(fe.lastUsed);
+				out.writeBoolean(fe.settled);
+				fe.snapshot.write(out);
+			}
+		} finally {
+			out.close();
+		}
+		if (tmp.renameTo(indexFile) == false) throw new IOException("Failed to rename "+tmp+" to "+indexFile);
+		dirty = false;
+	}
+
+	private void load() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(indexFile), 65536)));
+			if (in.readInt() != magic || in.readInt() != version) throw new IOException("Not a version "+version+" repository index");
+			int num = in.readInt();
+			for (int i=0; i< num; i++) {
+				String path = in.readUTF();
+				YearEntry ye = new YearEntry();
+				ye.dirTime = in.readLong();
+				ye.listedTime = in.readLong();
+				int numNames = in.readInt();
+				for (int j=0; j< numNames; j++) ye.names.add(in.readUTF());
+				years.put(path, ye);
+			}
+			num = in.readInt();
+			for (int i=0; i< num; i++) {
+				String path = in.readUTF();
+				FastqEntry fe = new FastqEntry();
+				fe.dirTime = in.readLong();
+				fe.lastUsed = in.readLong();
+				fe.settled = in.readBoolean();
+				fe.snapshot = FastqDirectorySnapshot.read(in);
+				fastqDirs.put(path, fe);
+			}
+			Util.pl("\tLoaded the repository index, "+years.size()+" year and "+fastqDirs.size()+" Fastq dirs from "+indexFile);
+		} catch (Exception e) {
+			Util.el("WARNING: failed to load the repository index "+indexFile+", starting empty. "+e.getMessage());
+			years.clear();
+			fastqDirs.clear();
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**Listed and reused Fastq dir counts since the last call, for the cycle log.*/
+	public synchronized String fetchAndResetStats() {
+		String s = numberListed+" Fastq dirs listed, "+numberReused+" reused, "+fastqDirs.size()+" indexed";
+		numberListed = 0;
+		numberReused = 0;
+		return s;
+	}
+
+	private static class YearEntry {
+		long dirTime;
+		long listedTime;
+		HashSet<String> names = new HashSet<String>();
+	}
+
+	private static class FastqEntry {
+		long dirTime;
+		long lastUsed;
+		boolean settled;
+		FastqDirectorySnapshot snapshot;
+	}
+}
@@ -0,0 +1,330 @@
+package edu.utah.hci.auto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**Watches the Repository year dirs, the dirs of requests waiting on Fastq, the hciLinkDirectory, and each job linked into it, and
+ * maps what changed back to request IDs so GNomExAutoAnalysis can process just those between its full cycles.
+ * A new request dir in a year dir is its request ID, a job link or a file written into a linked job dir, e.g. the COMPLETE rsync'ed
+ * back from CHPC, is the job name's request, 22597X4 -> 22597R. Events come from a WatchService when the file system delivers them,
+ * NFS only reports changes made on this host, so every dir's last modified time is also polled every pollMinutes and child
+ * listings diffed. Events are collected until 30 seconds pass without one so a demux copying many files is processed once.
+ * Requests can also ask to be rechecked at a time, e.g. when the newest fastq is old enough to pass the age check. Not thread safe.*/
+public class RepositoryWatcher {
+
+	private static final int YEAR = 1;
+	private static final int LINKS = 2;
+	private static final int JOB = 3;
+	private static final int REQUEST = 4;
+	//inotify watches are a per user system limit, past this the dirs are only polled
+	private static final int maxWatches = 4000;
+	private static final long quietMillis = 30000;
+
+	//fields
+	private WatchService watchService = null;
+	private long pollMillis = 0;
+	private long nextPoll = 0;
+	private Path linkDirectory = null;
+	private HashMap<Path, Watched> watched = new HashMap<Path, Watched>();
+	private HashMap<WatchKey, Watched> keys = new HashMap<WatchKey, Watched>();
+	private HashMap<String, ArrayList<Path>> requestPaths = new HashMap<String, ArrayList<Path>>();
+	private HashMap<String, Long> rechecks = new HashMap<String, Long>();
+	private int numberEvents = 0;
+	private int numberPolled = 0;
+
+	/**Watches the link directory and the jobs linked into it, falls back to polling alone if a WatchService can't be made.*/
+	public RepositoryWatcher(File linkDirectory, double pollMinutes) throws IOException {
+		pollMillis = Math.max(1000l, Math.round(pollMinutes * 60000.0));
+		nextPoll = System.currentTimeMillis() + pollMillis;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			Util.pl("WARNING: no WatchService for the Repository, polling every "+pollMinutes+" min. "+e.getMessage());
+		}
+		this.linkDirectory = linkDirectory.toPath();
+		register(this.linkDirectory, LINKS, null);
+		for (String job: watched.get(this.linkDirectory).children) registerJob(job);
+	}
+
+	/**A new child dir is taken as a request ID.*/
+	public void watchYearDirectory(File yearDir) throws IOException {
+		register(yearDir.toPath(), YEAR, null);
+	}
+
+	/**Watches the request dir for a Fastq dir and the Fastq dir for fastqs and the md5, replaces any prior watch of the request.*/
+	public void watchRequest(String requestId, File requestDir) throws IOException {
+		Path rd = requestDir.toPath();
+		ArrayList<Path> paths = requestPaths.get(requestId);
+		if (paths != null && paths.contains(rd)) {
+			registerFastq(requestId, rd);
+			return;
+		}
+		unwatchRequest(requestId);
+		register(rd, REQUEST, requestId);
+		registerFastq(requestId, rd);
+	}
+
+	/**Drops the request's dir watches and any recheck.*/
+	public void unwatchRequest(String requestId) {
+		rechecks.remove(requestId);
+		ArrayList<Path> paths = requestPaths.remove(requestId);
+		if (paths == null) return;
+		for (Path p: paths) unregister(p);
+	}
+
+	/**Returns the request from awaitChanges() at or after the time even if nothing changed, the earliest time wins.*/
+	public void recheckAt(String requestId, long time) {
+		Long prior = rechecks.get(requestId);
+		if (prior == null || time < prior) rechecks.put(requestId, time);
+	}
+
+	/**Blocks until something changed and then 30 seconds passed without further change, or maxWaitMillis passed.
+	 * Returns the changed request IDs, empty if nothing changed before the wait was up.*/
+	public TreeSet<String> awaitChanges(long maxWaitMillis) throws IOException, InterruptedException {
+		TreeSet<String> changed = new TreeSet<String>();
+		long deadline = System.currentTimeMillis() + maxWaitMillis;
+		long lastChange = 0;
+		while (true) {
+			long now = System.currentTimeMillis();
+
+			//rechecks don't need a quiet period
+			if (addDueRechecks(now, changed) && lastChange == 0) lastChange = now - quietMillis;
+			if (changed.size() != 0 && now - lastChange >= quietMillis) return changed;
+			if (now >= deadline) return changed;
+
+			if (now >= nextPoll) {
+				if (poll(changed)) lastChange = now;
+				nextPoll = System.currentTimeMillis() + pollMillis;
+				continue;
+			}
+
+			//wait for an event, the next poll, recheck, deadline, or the end of the quiet period
+			long until = Math.min(deadline, nextPoll);
+			for (Long t: rechecks.values()) if (t < until) until = t;
+			if (changed.size() != 0) until = Math.min(until, lastChange + quietMillis);
+			long wait = Math.max(1, until - now);
+			if (watchService == null) {
+				Thread.sleep(wait);
+				continue;
+			}
+			WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+			while (key != null) {
+				if (processKey(key, changed)) lastChange = System.currentTimeMillis();
+				key = watchService.poll();
+			}
+		}
+	}
+
+	private boolean addDueRechecks(long now, TreeSet<String> changed) {
+		boolean added = false;
+		Iterator<String> it = rechecks.keySet().iterator();
+		while (it.hasNext()) {
+			String id = it.next();
+			if (rechecks.get(id) <= now) {
+				changed.add(id);
+				it.remove();
+				added = true;
+			}
+		}
+		return added;
+	}
+
+	/**Maps the key's events to request IDs, true if any.*/
+	private boolean processKey(WatchKey key, TreeSet<String> changed) throws IOException {
+		Watched w = keys.get(key);
+		if (w == null) {
+			key.cancel();
+			return false;
+		}
+		boolean any = false;
+		for (WatchEvent<?> event: key.pollEvents()) {
+			numberEvents++;
+			//lost events, look at everything on the next pass
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				nextPoll = 0;
+				continue;
+			}
+			String name = event.context().toString();
+			if (w.kind == YEAR) changed.add(name);
+			else if (w.kind == LINKS) {
+				String id = requestIdForJob(name);
+				if (id != null) changed.add(id);
+			}
+			else changed.add(w.requestId);
+			any = true;
+		}
+		//sync so the next poll doesn't report it again
+		if (any) refresh(w, null);
+		if (key.reset() == false) {
+			//dir deleted
+			unregister(w.path);
+			if (w.requestId != null) changed.add(w.requestId);
+			any = true;
+		}
+		return any;
+	}
+
+	/**Checks the last modified time of everything watched, true if anything changed.*/
+	private boolean poll(TreeSet<String> changed) throws IOException {
+		numberPolled++;
+		int start = changed.size();
+		for (Watched w: new ArrayList<Watched>(watched.values())) {
+			if (watched.containsKey(w.path) == false) continue;
+			long time = lastModified(w.path);
+			if (time == w.lastModified) continue;
+			if (time == 0 && (w.kind == JOB || w.kind == REQUEST)) {
+				unregister(w.path);
+				changed.add(w.requestId);
+				continue;
+			}
+			refresh(w, changed);
+		}
+		return changed.size() != start;
+	}
+
+	/**Updates the time and child listing, registers new job links and Fastq dirs, adds what changed if changed isn't null.*/
+	private void refresh(Watched w, TreeSet<String> changed) throws IOException {
+		w.lastModified = lastModified(w.path);
+		if (w.kind == REQUEST) {
+			if (changed != null) changed.add(w.requestId);
+			if (w.path.getFileName().toString().equals("Fastq") == false) registerFastq(w.requestId, w.path);
+			return;
+		}
+		if (w.kind == JOB) {
+			if (changed != null) changed.add(w.requestId);
+			return;
+		}
+		HashSet<String> now = list(w.path);
+		for (String name: now) {
+			if (w.children.contains(name)) continue;
+			if (w.kind == LINKS) {
+				registerJob(name);
+				if (changed != null && requestIdForJob(name) != null) changed.add(requestIdForJob(name));
+			}
+			else if (changed != null) changed.add(name);
+		}
+		for (String name: w.children) {
+			if (now.contains(name)) continue;
+			if (w.kind == LINKS) {
+				unregister(w.path.resolve(name));
+				if (changed != null && requestIdForJob(name) != null) changed.add(requestIdForJob(name));
+			}
+			else if (changed != null) changed.add(name);
+		}
+		w.children = now;
+	}
+
+	private void registerJob(String name) throws IOException {
+		String id = requestIdForJob(name);
+		if (id != null) register(linkDirectory.resolve(name), JOB, id);
+	}
+
+	private void registerFastq(String requestId, Path requestDir) throws IOException {
+		Path fastq = requestDir.resolve("Fastq");
+		if (watched.containsKey(fastq) == false && Files.isDirectory(fastq)) register(fastq, REQUEST, requestId);
+	}
+
+	private void register(Path path, int kind, String requestId) throws IOException {
+		if (watched.containsKey(path)) return;
+		Watched w = new Watched();
+		w.path = path;
+		w.kind = kind;
+		w.requestId = requestId;
+		w.lastModified = lastModified(path);
+		if (kind == YEAR || kind == LINKS) w.children = list(path);
+		if (watchService != null && keys.size() < maxWatches && w.lastModified != 0) {
+			try {
+				w.key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				keys.put(w.key, w);
+			} catch (IOException e) {
+				//polled only
+			}
+		}
+		watched.put(path, w);
+		if (requestId != null && kind == REQUEST) {
+			ArrayList<Path> paths = requestPaths.get(requestId);
+			if (paths == null) {
+				paths = new ArrayList<Path>();
+				requestPaths.put(requestId, paths);
+			}
+			paths.add(path);
+		}
+	}
+
+	private void unregister(Path path) {
+		Watched w = watched.remove(path);
+		if (w == null || w.key == null) return;
+		keys.remove(w.key);
+		w.key.cancel();
+	}
+
+	/**Job dirs are named by sample ID, 22597X4 -> 22597R, null if not a sample ID.*/
+	static String requestIdForJob(String name) {
+		int x = name.indexOf('X');
+		if (x < 1) return null;
+		for (int i=0; i< x; i++) if (Character.isDigit(name.charAt(i)) == false) return null;
+		return name.substring(0, x)+"R";
+	}
+
+	/**Follows links, 0 if missing.*/
+	private static long lastModified(Path path) {
+		try {
+			return Files.getLastModifiedTime(path).toMillis();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static HashSet<String> list(Path dir) throws IOException {
+		HashSet<String> names = new HashSet<String>();
+		DirectoryStream<Path> ds = null;
+		try {
+			ds = Files.newDirectoryStream(dir);
+			for (Path p: ds) names.add(p.getFileName().toString());
+		} catch (NoSuchFileException e) {
+			//empty
+		} finally {
+			if (ds != null) ds.close();
+		}
+		return names;
+	}
+
+	/**Watched dirs, event driven dirs, events, and polls since the last call, for the cycle log.*/
+	public String fetchAndResetStats() {
+		String s = watched.size()+" dirs watched, "+keys.size()+" with events, "+numberEvents+" events, "+numberPolled+" polls";
+		numberEvents = 0;
+		numberPolled = 0;
+		return s;
+	}
+
+	public void close() {
+		if (watchService == null) return;
+		try {
+			watchService.close();
+		} catch (IOException e) {}
+	}
+
+	private static class Watched {
+		Path path;
+		int kind;
+		String requestId;
+		long lastModified;
+		WatchKey key;
+		HashSet<String> children;
+	}
+}
@@ -0,0 +1,143 @@
+package edu.utah.hci.auto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**Gives each tracked request or job its own next check time so a cycle only touches what is due, the work scales with the
+ * activity not the size of the 12 month window. Entries sit in a PriorityQueue keyed by due time, rescheduling leaves the old slot
+ * in place and it is skipped when polled. Active entries are checked every minInterval, settled ones back off by doubling up to
+ * a cap, dropped ones aren't checked again until their version changes, e.g. a new GNomEx lastModifyDate. Not thread safe.*/
+public class RequestScheduler {
+
+	//fields
+	private long minInterval = 0;
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private PriorityQueue<Slot> queue = new PriorityQueue<Slot>();
+	private int numberDue = 0;
+	private int numberDropped = 0;
+
+	public RequestScheduler(long minIntervalMillis) {
+		this.minInterval = minIntervalMillis;
+	}
+
+	/**New IDs are due now, a known ID whose version changed is due now even if dropped. The version may be null.*/
+	public void track(String id, String version) {
+		Entry e = entries.get(id);
+		if (e == null) {
+			e = new Entry(id);
+			entries.put(id, e);
+		}
+		else if (version == null || version.equals(e.version)) return;
+		e.version = version;
+		e.dropped = false;
+		e.interval = minInterval;
+		queue(e, System.currentTimeMillis());
+	}
+
+	/**Forgets everything not in the ids, e.g. requests that left the query window or job dirs that were removed.*/
+	public void retain(Set<String> ids) {
+		Iterator<String> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			Entry e = entries.get(it.next());
+			if (ids.contains(e.id) == false) {
+				e.slot = null;
+				it.remove();
+			}
+		}
+		//rebuild once the stale slots outnumber the live ones
+		if (queue.size() > 2 * entries.size() + 1000) {
+			queue.clear();
+			for (Entry e: entries.values()) if (e.slot != null) queue.add(e.slot);
+		}
+	}
+
+	/**Returns the due IDs in due order. Each is rescheduled at its current interval in case the caller doesn't set one.*/
+	public ArrayList<String> pollDue(long now) {
+		ArrayList<String> due = new ArrayList<String>();
+		while (queue.size() != 0 && queue.peek().due <= now) {
+			Slot s = queue.poll();
+			if (s.entry.slot != s) continue;
+			due.add(s.entry.id);
+			queue(s.entry, now + s.entry.interval);
+		}
+		numberDue += due.size();
+		return due;
+	}
+
+	/**Checks the ID again after the minInterval and resets its back off.*/
+	public void scheduleSoon(String id) {
+		Entry e = entries.get(id);
+		if (e == null) return;
+		e.dropped = false;
+		e.interval = minInterval;
+		queue(e, System.currentTimeMillis() + minInterval);
+	}
+
+	/**Doubles the ID's interval, starting from the minInterval, up to maxIntervalMillis.*/
+	public void backOff(String id, long maxIntervalMillis) {
+		Entry e = entries.get(id);
+		if (e == null) return;
+		e.dropped = false;
+		e.interval = Math.max(minInterval, Math.min(e.interval * 2, maxIntervalMillis));
+		queue(e, System.currentTimeMillis() + e.interval);
+	}
+
+	/**Stops checking the ID until its version changes or it's forgotten and tracked again.*/
+	public void drop(String id) {
+		Entry e = entries.get(id);
+		if (e == null || e.dropped) return;
+		e.dropped = true;
+		e.slot = null;
+		numberDropped++;
+	}
+
+	/**Earliest due time, Long.MAX_VALUE if nothing is scheduled.*/
+	public long fetchNextDueTime() {
+		while (queue.size() != 0 && queue.peek().entry.slot != queue.peek()) queue.poll();
+		if (queue.size() == 0) return Long.MAX_VALUE;
+		return queue.peek().due;
+	}
+
+	/**Due and dropped counts since the last call, for the cycle log.*/
+	public String fetchAndResetStats() {
+		String s = numberDue+" due of "+entries.size()+" tracked, "+numberDropped+" dropped";
+		numberDue = 0;
+		numberDropped = 0;
+		return s;
+	}
+
+	private void queue(Entry e, long due) {
+		e.slot = new Slot(e, due);
+		queue.add(e.slot);
+	}
+
+	private static class Entry {
+		String id;
+		String version;
+		long interval;
+		boolean dropped = false;
+		//the live slot in the queue, null if dropped or forgotten
+		Slot slot;
+
+		Entry(String id) {
+			this.id = id;
+		}
+	}
+
+	private static class Slot implements Comparable<Slot> {
+		Entry entry;
+		long due;
+
+		Slot(Entry entry, long due) {
+			this.entry = entry;
+			this.due = due;
+		}
+
+		public int compareTo(Slot o) {
+			return Long.compare(due, o.due);
+		}
+	}
+}
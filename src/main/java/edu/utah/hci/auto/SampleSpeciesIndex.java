@@ -0,0 +1,188 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**Binary sidecar index for the ORA sampleSpeciesFile, fixed width records sorted by sample ID so the demux side can memory map it
+ * and binary search a sampleId for its ORA species and compress flag without parsing the text file.
+ *
+ * Header: magic, version, numberRecords, keyWidth, speciesWidth (ints). Each record: keyWidth bytes of sampleId, 1 compress byte (1/0),
+ * speciesWidth bytes of ORA species, strings are UTF-8 and right padded with 0.
+ *
+ * java -cp AutoAnalysis.jar edu.utah.hci.auto.SampleSpeciesIndex sampleSpeciesForORA.txt.idx 21369X1 21369X2 ...*/
+public class SampleSpeciesIndex {
+
+	private static final int magic = 0x41414f49;
+	private static final int version = 1;
+	private static final int headerSize = 20;
+
+	//fields
+	private File indexFile = null;
+	private long fileTime = -1;
+	private MappedByteBuffer buffer = null;
+	private int numberRecords = 0;
+	private int keyWidth = 0;
+	private int speciesWidth = 0;
+	private int recordWidth = 0;
+
+	/**Memory maps the index, see refresh() to pick up a rewrite.*/
+	public SampleSpeciesIndex(File indexFile) throws IOException {
+		this.indexFile = indexFile;
+		refresh();
+	}
+
+	/**Remaps the index if it was replaced since the last load.*/
+	public synchronized void refresh() throws IOException {
+		if (indexFile.lastModified() == fileTime) return;
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (b.limit() < headerSize || b.getInt(0) != magic || b.getInt(4) != version) throw new IOException("Not a version "+version+" sample species index, "+indexFile);
+			numberRecords = b.getInt(8);
+			keyWidth = b.getInt(12);
+			speciesWidth = b.getInt(16);
+			recordWidth = keyWidth + 1 + speciesWidth;
+			if (b.limit() != headerSize + (long)numberRecords * recordWidth) throw new IOException("Truncated sample species index, "+indexFile);
+			buffer = b;
+			fileTime = indexFile.lastModified();
+		} finally {
+			//the mapping stays valid after the close
+			raf.close();
+		}
+	}
+
+	/**Binary searches for the sampleId, returns null if not found.*/
+	public synchronized Entry lookup(String sampleId) {
+		byte[] key = sampleId.getBytes(StandardCharsets.UTF_8);
+		if (key.length > keyWidth) return null;
+		int low = 0;
+		int high = numberRecords - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareKey(headerSize + mid * recordWidth, key);
+			if (cmp < 0) low = mid + 1;
+			else if (cmp > 0) high = mid - 1;
+			else {
+				int pos = headerSize + mid * recordWidth + keyWidth;
+				return new Entry(sampleId, buffer.get(pos) == 1, readString(pos + 1, speciesWidth));
+			}
+		}
+		return null;
+	}
+
+	/**Compares the padded record key to the key as unsigned bytes, same order as String.compareTo for ASCII ids.*/
+	private int compareKey(int pos, byte[] key) {
+		for (int i=0; i< keyWidth; i++) {
+			int a = buffer.get(pos + i) & 0xff;
+			int b = i < key.length ? key[i] & 0xff : 0;
+			if (a != b) return a - b;
+			if (a == 0) return 0;
+		}
+		return 0;
+	}
+
+	private String readString(int pos, int width) {
+		byte[] b = new byte[width];
+		for (int i=0; i< width; i++) b[i] = buffer.get(pos + i);
+		int length = 0;
+		while (length < width && b[length] != 0) length++;
+		return new String(b, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**Writes the index for samples already sorted by sample ID, duplicate IDs keep the first, to a tmp file then renames it over the indexFile.*/
+	public static void write(File indexFile, GNomExSample[] sortedSamples) throws IOException {
+		int keyWidth = 1;
+		int speciesWidth = 1;
+		int numberRecords = 0;
+		String prior = null;
+		for (GNomExSample s: sortedSamples) {
+			if (s.getSampleId().equals(prior)) continue;
+			prior = s.getSampleId();
+			numberRecords++;
+			keyWidth = Math.max(keyWidth, s.getSampleId().getBytes(StandardCharsets.UTF_8).length);
+			speciesWidth = Math.max(speciesWidth, oraSpecies(s).getBytes(StandardCharsets.UTF_8).length);
+		}
+
+		File tmp = new File(indexFile.getParentFile(), "tmp_"+indexFile.getName());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(numberRecords);
+			out.writeInt(keyWidth);
+			out.writeInt(speciesWidth);
+			prior = null;
+			for (GNomExSample s: sortedSamples) {
+				if (s.getSampleId().equals(prior)) continue;
+				prior = s.getSampleId();
+				writePadded(out, s.getSampleId(), keyWidth);
+				out.writeByte(s.isOraCompress() ? 1 : 0);
+				writePadded(out, oraSpecies(s), speciesWidth);
+			}
+		} finally {
+			out.close();
+		}
+		if (tmp.renameTo(indexFile) == false) throw new IOException("Failed to rename "+tmp+" to "+indexFile);
+		indexFile.setReadable(true, false);
+	}
+
+	private static String oraSpecies(GNomExSample s) {
+		return s.getOraSpecies() == null ? "" : s.getOraSpecies();
+	}
+
+	private static void writePadded(DataOutputStream out, String s, int width) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.write(b);
+		for (int i=b.length; i< width; i++) out.writeByte(0);
+	}
+
+	public int getNumberRecords() {
+		return numberRecords;
+	}
+
+	/**ORA species and compress flag for a sample.*/
+	public static class Entry {
+		private String sampleId;
+		private boolean oraCompress;
+		private String oraSpecies;
+
+		private Entry(String sampleId, boolean oraCompress, String oraSpecies) {
+			this.sampleId = sampleId;
+			this.oraCompress = oraCompress;
+			this.oraSpecies = oraSpecies;
+		}
+
+		public String getSampleId() {
+			return sampleId;
+		}
+
+		public boolean isOraCompress() {
+			return oraCompress;
+		}
+
+		public String getOraSpecies() {
+			return oraSpecies;
+		}
+
+		public String toString() {
+			return sampleId+"\t"+oraCompress+"\t"+oraSpecies;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) Util.printErrAndExit("Usage: SampleSpeciesIndex indexFile sampleId [sampleId...]");
+		SampleSpeciesIndex index = new SampleSpeciesIndex(new File(args[0]));
+		for (int i=1; i< args.length; i++) {
+			Entry e = index.lookup(args[i]);
+			Util.pl(e == null ? args[i]+"\tNot found" : e.toString());
+		}
+	}
+}
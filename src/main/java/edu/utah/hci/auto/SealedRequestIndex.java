@@ -0,0 +1,122 @@
+package edu.utah.hci.auto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+/**Persistent record of the requests whose AutoAnalysis passed the COMPLETE checks, with the fingerprint of their Fastq dir at that
+ * time, last modified, number of entries, and total size. A sealed request skips the fastq, job count, and date checks until the
+ * fingerprint changes, e.g. HTG adds fastq or the Fastq is archived, or its AutoAnalysis dir goes away, then it is unsealed and
+ * checked in full. Entries for requests that left the GNomEx query window are dropped. Thread safe.
+ *
+ * File: requestId autoAnalysisDir fastqDirLastModified numberEntries totalSize, tab delimited*/
+public class SealedRequestIndex {
+
+	//fields
+	private File indexFile = null;
+	private HashMap<String, Seal> seals = new HashMap<String, Seal>();
+	private boolean dirty = false;
+	private int hits = 0;
+	private int broken = 0;
+
+	/**Loads the indexFile if it exists, a corrupt one is just ignored.*/
+	public SealedRequestIndex(File indexFile) {
+		this.indexFile = indexFile;
+		if (indexFile.exists() == false) return;
+		try {
+			BufferedReader in = Util.fetchBufferedReader(indexFile);
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = Util.TAB.split(line);
+				if (f.length != 5) continue;
+				seals.put(f[0], new Seal(new File(f[1]), Long.parseLong(f[2]), Integer.parseInt(f[3]), Long.parseLong(f[4])));
+			}
+			in.close();
+			Util.pl("\tLoaded "+seals.size()+" sealed requests from "+indexFile);
+		} catch (Exception e) {
+			Util.el("WARNING: failed to load the sealed request index "+indexFile+", starting empty. "+e.getMessage());
+			seals.clear();
+		}
+	}
+
+	/**True if the request is sealed and the Fastq dir and AutoAnalysis dir are unchanged, otherwise the seal is broken and false returned.*/
+	public synchronized boolean isSealed(String requestId, FastqDirectorySnapshot fastq) {
+		Seal s = seals.get(requestId);
+		if (s == null) return false;
+		if (s.matches(fastq) && s.autoAnalysisDir.exists()) {
+			hits++;
+			return true;
+		}
+		seals.remove(requestId);
+		dirty = true;
+		broken++;
+		return false;
+	}
+
+	/**Records the request's Fastq dir fingerprint, replacing any prior seal.*/
+	public synchronized void seal(String requestId, File autoAnalysisDir, FastqDirectorySnapshot fastq) {
+		Seal s = new Seal(autoAnalysisDir, fastq.getDirectory().lastModified(), fastq.getNumberEntries(), fastq.fetchTotalEntrySize());
+		Seal prior = seals.put(requestId, s);
+		if (prior == null || prior.sameAs(s) == false) dirty = true;
+	}
+
+	/**Drops the seals of requests not in the ids.*/
+	public synchronized void retain(Set<String> requestIds) {
+		Iterator<String> it = seals.keySet().iterator();
+		while (it.hasNext()) {
+			if (requestIds.contains(it.next()) == false) {
+				it.remove();
+				dirty = true;
+			}
+		}
+	}
+
+	/**Writes the index if anything changed, via a tmp file and rename.*/
+	public synchronized void save() throws IOException {
+		if (dirty == false) return;
+		File tmp = new File(indexFile.getParentFile(), "tmp_"+indexFile.getName());
+		PrintWriter out = new PrintWriter(tmp);
+		for (String id: seals.keySet()) {
+			Seal s = seals.get(id);
+			out.println(id+"\t"+s.autoAnalysisDir+"\t"+s.lastModified+"\t"+s.numberEntries+"\t"+s.totalSize);
+		}
+		out.close();
+		if (tmp.renameTo(indexFile) == false) throw new IOException("Failed to rename "+tmp+" to "+indexFile);
+		dirty = false;
+	}
+
+	/**Sealed hits and broken seals since the last call, for the cycle log.*/
+	public synchronized String fetchAndResetStats() {
+		String s = hits+" sealed skips, "+broken+" seals broken, "+seals.size()+" sealed";
+		hits = 0;
+		broken = 0;
+		return s;
+	}
+
+	private static class Seal {
+		File autoAnalysisDir;
+		long lastModified;
+		int numberEntries;
+		long totalSize;
+
+		Seal(File autoAnalysisDir, long lastModified, int numberEntries, long totalSize) {
+			this.autoAnalysisDir = autoAnalysisDir;
+			this.lastModified = lastModified;
+			this.numberEntries = numberEntries;
+			this.totalSize = totalSize;
+		}
+
+		boolean matches(FastqDirectorySnapshot fastq) {
+			return fastq.exists() && fastq.getNumberEntries() == numberEntries && fastq.fetchTotalEntrySize() == totalSize &&
+					fastq.getDirectory().lastModified() == lastModified;
+		}
+
+		boolean sameAs(Seal o) {
+			return autoAnalysisDir.equals(o.autoAnalysisDir) && lastModified == o.lastModified && numberEntries == o.numberEntries && totalSize == o.totalSize;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package edu.utah.hci.auto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarFile;
+
+/**Runs a USeq app jar, e.g. JobCleaner or AggregateQCStats2, inside the daemon JVM instead of a java -jar per call, so the JVM start,
+ * class loading, and JIT are paid once and no 5G heap is made per request. The jar gets its own URLClassLoader whose parent is the
+ * JDK's, so it can't see or clash with the daemon's classes. Calls to one app are made one at a time on a daemon thread in case it
+ * keeps static state, with a timeout, and everything it prints, on any thread it starts, is captured for the caller.
+ * USeq apps end with System.exit(), that is stopped by a SecurityManager and taken as the exit code. That and the output routing are
+ * JVM wide so installTrap() is only called once the runners have loaded. SecurityManager is deprecated for removal from JDK 17, if
+ * one can't be installed, e.g. JDK 18+ without -Djava.security.manager=allow, installTrap() restores the originals, returns false,
+ * and the caller should use java -jar.*/
+public class UseqAppRunner {
+
+	private static final InheritableThreadLocal<Call> currentCall = new InheritableThreadLocal<Call>();
+	private static Boolean available = null;
+	private static SecurityManager originalSecurityManager = null;
+	private static PrintStream originalOut = null;
+	private static PrintStream originalErr = null;
+
+	//fields
+	private File jar = null;
+	private Method main = null;
+	private long timeoutMillis = 0;
+	private ExecutorService executor = null;
+	//set once a call times out, its thread may never return so no more calls are made
+	private volatile boolean stuck = false;
+
+	/**Loads the jar's Main-Class, throws if the jar can't be read or has none.*/
+	public UseqAppRunner(File jar, double timeoutMinutes) throws IOException {
+		this.jar = jar;
+		timeoutMillis = Math.round(timeoutMinutes * 60000.0);
+		JarFile jf = new JarFile(jar);
+		String mainClass = null;
+		try {
+			if (jf.getManifest() != null) mainClass = jf.getManifest().getMainAttributes().getValue("Main-Class");
+		} finally {
+			jf.close();
+		}
+		if (mainClass == null) throw new IOException("ERROR: no Main-Class in the manifest of "+jar);
+		try {
+			ClassLoader loader = new URLClassLoader(new URL[] {jar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent());
+			main = loader.loadClass(mainClass.trim()).getMethod("main", String[].class);
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("ERROR: failed to load "+mainClass+" from "+jar, e);
+		}
+		final String name = jar.getName();
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "useq-"+name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**Installs the exit trap and the output routing once, false if the JVM won't allow a SecurityManager, the originals are then left
+	 * in place.*/
+	public static synchronized boolean installTrap() {
+		if (available != null) return available;
+		originalSecurityManager = System.getSecurityManager();
+		originalOut = System.out;
+		originalErr = System.err;
+		try {
+			System.setSecurityManager(new ExitTrap());
+			System.setOut(new PrintStream(new RoutingStream(originalOut), true));
+			System.setErr(new PrintStream(new RoutingStream(originalErr), true));
+			available = true;
+		} catch (UnsupportedOperationException | SecurityException e) {
+			restore();
+			Util.pl("WARNING: can't trap System.exit() in this JVM, running the USeq apps with java -jar. "+e.getMessage());
+			available = false;
+		}
+		return available;
+	}
+
+	private static void restore() {
+		try {
+			if (System.getSecurityManager() != originalSecurityManager) System.setSecurityManager(originalSecurityManager);
+		} catch (UnsupportedOperationException | SecurityException e) {}
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+	}
+
+	/**Calls the app's main with the args and waits up to the timeout. Throws with the captured output if it fails, exits non zero, or
+	 * times out, otherwise returns the output. A timed out call is interrupted but can't be killed, so the runner is then unusable and
+	 * the caller should go back to java -jar.*/
+	public synchronized String run(final String... args) throws IOException {
+		if (stuck) throw new IOException("ERROR: "+jar.getName()+" is unusable after a timed out call");
+		final Call call = new Call();
+		Future<Void> f = executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				currentCall.set(call);
+				try {
+					main.invoke(null, (Object)args);
+				} catch (InvocationTargetException e) {
+					//exit trapped, or a real failure
+					if (call.exitCode == null) throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+				} finally {
+					currentCall.remove();
+				}
+				return null;
+			}
+		});
+		String name = jar.getName()+" "+Util.stringArrayToString(args, " ");
+		try {
+			f.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			stuck = true;
+			executor.shutdownNow();
+			throw new IOException("ERROR: timed out after "+String.format("%.1f", timeoutMillis/60000.0)+" min running "+name+"\n"+call.output());
+		} catch (ExecutionException e) {
+			throw new IOException("ERROR: failed running "+name+"\n"+call.output(), e.getCause());
+		} catch (InterruptedException e) {
+			f.cancel(true);
+			throw new IOException("ERROR: interrupted running "+name);
+		}
+		if (call.exitCode != null && call.exitCode != 0) throw new IOException("ERROR: exit code "+call.exitCode+" from "+name+"\n"+call.output());
+		return call.output();
+	}
+
+	/**False once a call timed out.*/
+	public boolean isUsable() {
+		return stuck == false;
+	}
+
+	public File getJar() {
+		return jar;
+	}
+
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**One app call, the exit code is null until it calls System.exit().*/
+	private static class Call {
+		volatile Integer exitCode = null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		synchronized String output() {
+			return out.toString();
+		}
+	}
+
+	/**Stops System.exit() from app calls, everything else is allowed.*/
+	private static class ExitTrap extends SecurityManager {
+		public void checkExit(int status) {
+			Call call = currentCall.get();
+			if (call == null) return;
+			if (call.exitCode == null) call.exitCode = status;
+			throw new SecurityException("System.exit("+status+") trapped");
+		}
+		public void checkPermission(Permission perm) {}
+		public void checkPermission(Permission perm, Object context) {}
+	}
+
+	/**Sends what the app threads print to their call, the rest to the original stream.*/
+	private static class RoutingStream extends OutputStream {
+		private OutputStream original;
+
+		RoutingStream(OutputStream original) {
+			this.original = original;
+		}
+
+		public void write(int b) throws IOException {
+			Call call = currentCall.get();
+			if (call == null) original.write(b);
+			else synchronized (call) { call.out.write(b); }
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			Call call = currentCall.get();
+			if (call == null) original.write(b, off, len);
+			else synchronized (call) { call.out.write(b, off, len); }
+		}
+
+		public void flush() throws IOException {
+			original.flush();
+		}
+	}
+}
@@ -7,6 +7,7 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.MappedByteBuffer;
@@ -22,6 +23,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -29,6 +31,11 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 public class Util {
+
+	/**Directories starting with a word character, sorted, for extractOnlyDirectories().*/
+	private static final FileSystemScanner wordDirectories = new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).setPattern(Pattern.compile("^\\w+.*")).setSort(true);
+	/**Compiled extractFiles() extension patterns.*/
+	private static final ConcurrentHashMap<String, Pattern> extensionPatterns = new ConcurrentHashMap<String, Pattern>();
 	
 	public static final Pattern TAB = Pattern.compile("\t");
 	public static final Pattern SEMI_COLON_SPACE = Pattern.compile("\\s*;\\s*");
@@ -311,18 +318,12 @@ public class Util {
 	
 	/**Fetches all files with a given extension in a directory recursing through sub directories.*/
 	public static ArrayList<File> fetchAllFilesRecursively (File directory, String extension){
-		ArrayList<File> files = new ArrayList<File>(); 
-		File[] list = directory.listFiles();
-		for (int i=0; i< list.length; i++){
-			if (list[i].isDirectory()) {
-				ArrayList<File> al = fetchAllFilesRecursively (list[i], extension);
-				files.addAll(al);
-			}
-			else{
-				if (list[i].getName().endsWith(extension)) files.add(list[i]);
-			}
+		try {
+			return new FileSystemScanner(FileSystemScanner.FILES, null, extension).setSkipHidden(false).setMaxDepth(Integer.MAX_VALUE).list(directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ArrayList<File>();
 		}
-		return files;
 	}
 	
 	/**Extracts the full path file names of all the files in a given directory with a given extension (ie txt or .txt).
@@ -331,39 +332,35 @@ public class Util {
 	public static File[] extractFiles(File dirOrFile, String extension){
 		if (dirOrFile == null || dirOrFile.exists() == false) return null;
 		File[] files = null;
-		Pattern p = Pattern.compile(".*"+extension+"$", Pattern.CASE_INSENSITIVE);
-		Matcher m;
+		Pattern p = extensionPatterns.get(extension);
+		if (p == null) {
+			p = Pattern.compile(".*"+extension+"$", Pattern.CASE_INSENSITIVE);
+			extensionPatterns.put(extension, p);
+		}
 		if (dirOrFile.isDirectory()){
-			files = dirOrFile.listFiles();
-			int num = files.length;
-			ArrayList chromFiles = new ArrayList();
-			for (int i=0; i< num; i++)  {
-				m= p.matcher(files[i].getName());
-				if (m.matches()) chromFiles.add(files[i]);
-			}
-			files = new File[chromFiles.size()];
-			chromFiles.toArray(files);
-		}
-		else{
-			m= p.matcher(dirOrFile.getName());
-			if (m.matches()) {
-				files=new File[1];
-				files[0]= dirOrFile;
+			try {
+				files = new FileSystemScanner(FileSystemScanner.ALL, null, null).setSkipHidden(false).setPattern(p).listArray(dirOrFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
 			}
 		}
+		else if (p.matcher(dirOrFile.getName()).matches()) {
+			files=new File[1];
+			files[0]= dirOrFile;
+		}
 		if (files != null) Arrays.sort(files);
 		return files;
 	}
 	
 	/**Extracts files or directories in the dir that begin with the prefix, not recursive. Returns an empty File[] if nothing found*/
 	public static File[] extractFilesPrefix(File dir, String prefix){
-		ArrayList<File> toReturn = new ArrayList<File>();
-		for (File f: dir.listFiles()) {
-			if (f.getName().startsWith(prefix)) toReturn.add(f);
+		try {
+			return new FileSystemScanner(FileSystemScanner.ALL, prefix, null).setSkipHidden(false).listArray(dir);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new File[0];
 		}
-		File[] matches = new File[toReturn.size()];
-		toReturn.toArray(matches);
-		return matches;
 	}
 	
 	public static void deleteDirectoryViaCmdLine(File dir){
@@ -448,6 +445,57 @@ public class Util {
 		return in;
 	}
 	
+	/**Reused per thread by countLines(), big enough to inflate many reads per call.*/
+	private static final ThreadLocal<byte[]> lineProbeBuffer = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() {
+			return new byte[1024*1024];
+		}
+	};
+	
+	/**Counts the lines in a txt or gz file, stopping once maxLines are seen. Inflates into a reused byte buffer and counts the new line bytes,
+	 * no Readers or Strings, for probing fastq.gz read depth. An unterminated last line counts, same as BufferedReader.readLine().*/
+	public static LineProbe countLines(File file, long maxLines) throws IOException {
+		byte[] buffer = lineProbeBuffer.get();
+		long lines = 0;
+		long bytes = 0;
+		byte last = '\n';
+		InputStream in = new FileInputStream(file);
+		try {
+			if (file.getName().toLowerCase().endsWith(".gz")) in = new GZIPInputStream(in, 65536);
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				bytes += n;
+				for (int i=0; i< n; i++) {
+					if (buffer[i] == '\n' && ++lines >= maxLines) return new LineProbe(lines, bytes);
+				}
+				if (n != 0) last = buffer[n-1];
+			}
+		} finally {
+			in.close();
+		}
+		if (last != '\n') lines++;
+		return new LineProbe(lines, bytes);
+	}
+	
+	/**Result of countLines(), bytesInflated is what was read after decompression, not the file size.*/
+	public static class LineProbe {
+		private final long lines;
+		private final long bytesInflated;
+		
+		public LineProbe(long lines, long bytesInflated) {
+			this.lines = lines;
+			this.bytesInflated = bytesInflated;
+		}
+		
+		public long getLines() {
+			return lines;
+		}
+		
+		public long getBytesInflated() {
+			return bytesInflated;
+		}
+	}
+	
 	/**Loads a file's lines into a hash splitting on tab, using the designated keys. Returns null if a problem.*/
 	public static LinkedHashMap<String,String> loadFileIntoHash(File file, int keyIndex, int valueIndex){
 		LinkedHashMap<String,String> names = new LinkedHashMap<String,String>(1000);
@@ -484,13 +532,12 @@ public class Util {
 
 	/**Returns a hash of the directory name and its File object.*/
 	public static HashMap<String, File> extractDirectories(File directory){
-		File[] fileNames = directory.listFiles();
-		HashMap<String, File> toReturn = new HashMap<String, File>();
-		for (int i=0; i< fileNames.length; i++)  {
-			if (fileNames[i].isDirectory() == false) continue;
-			toReturn.put(fileNames[i].getName(), fileNames[i]);
+		try {
+			return new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).setSkipHidden(false).listByName(directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new HashMap<String, File>();
 		}
-		return toReturn;
 	}
 	
 	/**Returns a String separated by the separator for each element.*/
@@ -524,22 +571,22 @@ public class Util {
 	
 	/**Given a directory, returns a HashMap<String, File> of the containing directories' names and a File obj for the directory. */
 	public static HashMap<String, File> fetchNamesAndDirectories(File directory){
-		HashMap<String, File> nameFile = new HashMap<String, File>();
-		File[] files = Util.extractFiles(directory);	
-		for (int i=0; i< files.length; i++){
-			if (files[i].isDirectory()) nameFile.put(files[i].getName(), files[i]);
+		try {
+			return new FileSystemScanner(FileSystemScanner.DIRECTORIES, null, null).listByName(directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new HashMap<String, File>();
 		}
-		return nameFile;
 	}
 	
 	/**Given a directory, returns a HashMap<String, File> of the containing files names and a File obj for the directory. */
 	public static HashMap<String, File> fetchNamesAndFiles(File directory){
-		HashMap<String, File> nameFile = new HashMap<String, File>();
-		File[] files = extractFiles(directory);	
-		for (int i=0; i< files.length; i++){
-			if (files[i].isDirectory() == false) nameFile.put(files[i].getName(), files[i]);
+		try {
+			return new FileSystemScanner(FileSystemScanner.FILES, null, null).listByName(directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new HashMap<String, File>();
 		}
-		return nameFile;
 	}
 	
 	/**Extracts the full path file names of all the files and directories in a given directory. If a file is given it is
@@ -548,30 +595,12 @@ public class Util {
 	public static File[] extractFiles(File directory){
 		try{
 			directory = directory.getCanonicalFile();
-			File[] files = null;	
-			String[] fileNames;
-			if (directory.isDirectory()){
-				fileNames = directory.list();
-				if (fileNames != null) {
-					int num = fileNames.length;
-					ArrayList<File> al = new ArrayList<File>();
-
-					String path = directory.getCanonicalPath();
-					for (int i=0; i< num; i++)  {
-						if (fileNames[i].startsWith(".") == false) al.add(new File(path, fileNames[i])); 
-					}
-					//convert arraylist to file[]
-					if (al.size() != 0){
-						files = new File[al.size()];
-						al.toArray(files);
-					}
-				}
-			}
-			if (files == null){
+			File[] files = null;
+			if (directory.isDirectory()) files = new FileSystemScanner(FileSystemScanner.ALL, null, null).setSort(true).listArray(directory);
+			if (files == null || files.length == 0){
 				files = new File[1];
 				files[0] = directory;
 			}
-			Arrays.sort(files);
 			return files;
 
 		}catch(IOException e){
@@ -586,23 +615,15 @@ public class Util {
 	 * Skips those beginning with a period.*/
 	public static File[] extractOnlyDirectories(File directory){
 		if (directory.isDirectory() == false) return null;
-		File[] fileNames = directory.listFiles();
-		ArrayList<File> al = new ArrayList<File>();
-		Pattern pat = Pattern.compile("^\\w+.*");
-		Matcher mat; 
-		for (int i=0; i< fileNames.length; i++)  {
-			if (fileNames[i].isDirectory() == false) continue;
-			mat = pat.matcher(fileNames[i].getName());
-			if (mat.matches()) al.add(fileNames[i]);
-		}
-		//convert arraylist to file[]
-		if (al.size() != 0){
-			File[] files = new File[al.size()];
-			al.toArray(files);
-			Arrays.sort(files);
-			return files;
+		File[] files = null;
+		try {
+			files = wordDirectories.listArray(directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
 		}
-		else return null;
+		if (files.length == 0) return null;
+		return files;
 	}
 	/**Merges all files in File[][] to a File[].*/
 	public static File[] collapseFileArray(File[][] f) {
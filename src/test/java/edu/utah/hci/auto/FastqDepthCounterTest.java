@@ -0,0 +1,169 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FastqDepthCounterTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private FastqDepthCounter counter = null;
+
+	@Before
+	public void setUp() {
+		counter = new FastqDepthCounter(3);
+	}
+
+	@After
+	public void tearDown() {
+		counter.shutdown();
+	}
+
+	@Test
+	public void countsPlainGzip() throws IOException {
+		File r1 = tmp.newFile("S1_S1_L001_R1_001.fastq.gz");
+		File r2 = tmp.newFile("S1_S1_L001_R2_001.fastq.gz");
+		writeGzip(r1, fastq(100, 50));
+		writeGzip(r2, fastq(100, 75));
+		assertFalse(FastqDepthCounter.isBgzf(r1));
+
+		FastqDepthCounter.SampleDepth sd = counter.countSample("S1", Arrays.asList(r1, r2));
+		assertEquals(200, sd.getReads());
+		assertEquals(100*50 + 100*75, sd.getBases());
+		assertEquals(100, sd.getR1Reads());
+		assertEquals(100, sd.getR2Reads());
+		assertTrue(sd.isParityOK());
+	}
+
+	@Test
+	public void countsBgzfLikePlainGzip() throws IOException {
+		//small blocks so records straddle blocks and there are several batches
+		byte[] fastq = fastq(3000, 101);
+		File plain = tmp.newFile("S2_S1_L001_R1_001.fastq.gz");
+		File bgzf = tmp.newFile("S3_S1_L001_R1_001.fastq.gz");
+		writeGzip(plain, fastq);
+		writeBgzf(bgzf, fastq, 997);
+		assertTrue(FastqDepthCounter.isBgzf(bgzf));
+
+		FastqDepthCounter.SampleDepth a = counter.countSample("S2", Arrays.asList(plain));
+		FastqDepthCounter.SampleDepth b = counter.countSample("S3", Arrays.asList(bgzf));
+		assertEquals(3000, b.getReads());
+		assertEquals(3000*101, b.getBases());
+		assertEquals(a.getReads(), b.getReads());
+		assertEquals(a.getBases(), b.getBases());
+	}
+
+	@Test
+	public void noTrailingNewLineStillCounts() throws IOException {
+		byte[] fastq = fastq(10, 20);
+		File f = tmp.newFile("S4_S1_L001_R1_001.fastq.gz");
+		writeGzip(f, Arrays.copyOf(fastq, fastq.length - 1));
+		FastqDepthCounter.SampleDepth sd = counter.countSample("S4", Arrays.asList(f));
+		assertEquals(10, sd.getReads());
+		assertEquals(200, sd.getBases());
+	}
+
+	@Test
+	public void truncatedRecordThrows() throws IOException {
+		//drop the quality line of the last record
+		String s = new String(fastq(10, 20), StandardCharsets.US_ASCII);
+		s = s.substring(0, s.lastIndexOf("+\n") + 2);
+		File plain = tmp.newFile("S5_S1_L001_R1_001.fastq.gz");
+		File bgzf = tmp.newFile("S6_S1_L001_R1_001.fastq.gz");
+		writeGzip(plain, s.getBytes(StandardCharsets.US_ASCII));
+		writeBgzf(bgzf, s.getBytes(StandardCharsets.US_ASCII), 64);
+		for (File f: new File[] {plain, bgzf}) {
+			try {
+				counter.countSample("S5", Arrays.asList(f));
+				fail("No exception for a truncated fastq "+f.getName());
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Truncated fastq"));
+			}
+		}
+	}
+
+	@Test
+	public void skipsOra() throws IOException {
+		File ora = tmp.newFile("S7_S1_L001_R1_001.fastq.ora");
+		FastqDepthCounter.SampleDepth sd = counter.countSample("S7", Arrays.asList(ora));
+		assertEquals(1, sd.getNumberOraFiles());
+		assertEquals(0, sd.getReads());
+	}
+
+	private static byte[] fastq(int numberReads, int readLength) {
+		StringBuilder sb = new StringBuilder();
+		char[] seq = new char[readLength];
+		char[] qual = new char[readLength];
+		Arrays.fill(qual, 'F');
+		for (int i=0; i< numberReads; i++) {
+			for (int j=0; j< readLength; j++) seq[j] = "ACGT".charAt((i + j) % 4);
+			sb.append("@read").append(i).append(" 1:N:0:ACGT\n").append(seq).append("\n+\n").append(qual).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static void writeGzip(File f, byte[] b) throws IOException {
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+		out.write(b);
+		out.close();
+	}
+
+	/**Writes the bytes as BGZF blocks of at most blockSize uncompressed bytes followed by the empty EOF block.*/
+	private static void writeBgzf(File f, byte[] b, int blockSize) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		for (int i=0; i< b.length; i+= blockSize) out.write(bgzfBlock(Arrays.copyOfRange(b, i, Math.min(b.length, i + blockSize))));
+		out.write(bgzfBlock(new byte[0]));
+		out.close();
+	}
+
+	private static byte[] bgzfBlock(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		byte[] buf = new byte[65536];
+		while (deflater.finished() == false) payload.write(buf, 0, deflater.deflate(buf));
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		int bsize = 18 + payload.size() + 8 - 1;
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		block.write(new byte[] {31, (byte)139, 8, 4, 0, 0, 0, 0, 0, (byte)255, 6, 0, 'B', 'C', 2, 0}, 0, 16);
+		writeShort(block, bsize);
+		block.write(payload.toByteArray(), 0, payload.size());
+		writeInt(block, (int)crc.getValue());
+		writeInt(block, data.length);
+		return block.toByteArray();
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int v) {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		writeShort(out, v & 0xffff);
+		writeShort(out, (v >>> 16) & 0xffff);
+	}
+}
@@ -0,0 +1,76 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class FastqNameTest {
+
+	@Test
+	public void parsesAllNineFields() {
+		FastqName fn = new FastqName(new File("/x/21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L001_R1_001.fastq.gz"));
+		assertEquals("21369X1", fn.getSampleId());
+		assertEquals("20231010", fn.getRunDate());
+		assertEquals("LH00227", fn.getInstrument());
+		assertEquals("0016", fn.getRun());
+		assertEquals("B227FWCLT3", fn.getFlowcell());
+		assertEquals("S15", fn.getSampleNumber());
+		assertEquals("L001", fn.getLane());
+		assertEquals("R1", fn.getRead());
+		assertEquals("001", fn.getChunk());
+		assertEquals("fastq.gz", fn.getFormat());
+		assertEquals("21369X1_20231010_LH00227_0016_B227FWCLT3", fn.getRunPrefix());
+		assertTrue(fn.isR1());
+		assertFalse(fn.isOra());
+	}
+
+	@Test
+	public void parsesFiveFieldName() {
+		FastqName fn = new FastqName(new File("21369X1_S15_L001_R2_001.fastq.gz"));
+		assertEquals("21369X1", fn.getSampleId());
+		assertEquals("R2", fn.getRead());
+		assertEquals("001", fn.getChunk());
+		assertEquals("fastq.gz", fn.getFormat());
+		assertEquals("21369X1_S15_L001_R2_001", fn.getRunPrefix());
+		assertTrue(fn.isR2());
+		//too few fields for the run and lane fields
+		assertNull(fn.getRunDate());
+		assertNull(fn.getFlowcell());
+		assertNull(fn.getSampleNumber());
+		assertNull(fn.getLane());
+	}
+
+	@Test
+	public void parsesIndexRead() {
+		FastqName fn = new FastqName(new File("21369X1_20231010_LH00227_0016_B227FWCLT3_S15_L001_I1_001.fastq.gz"));
+		assertEquals("I1", fn.getRead());
+		assertFalse(fn.isR1());
+		assertFalse(fn.isR2());
+		assertEquals("L001", fn.getLane());
+	}
+
+	@Test
+	public void extraUmiFieldDoesNotShiftFields() {
+		FastqName fn = new FastqName(new File("21369X1_20231010_LH00227_0016_B227FWCLT3_UMI_S15_L001_R2_001.fastq.gz"));
+		assertEquals("21369X1", fn.getSampleId());
+		assertEquals("B227FWCLT3", fn.getFlowcell());
+		assertEquals("S15", fn.getSampleNumber());
+		assertEquals("L001", fn.getLane());
+		assertEquals("R2", fn.getRead());
+		assertEquals("001", fn.getChunk());
+		assertEquals("21369X1_20231010_LH00227_0016_B227FWCLT3", fn.getRunPrefix());
+	}
+
+	@Test
+	public void parsesInterleavedOra() {
+		FastqName fn = new FastqName(new File("26155X1_20250425_LH00227_0152_A22Y7LTLT3_S17_L002_R-interleaved_001.fastq.ora"));
+		assertTrue(fn.isInterleaved());
+		assertTrue(fn.isOra());
+		assertEquals("fastq.ora", fn.getFormat());
+	}
+}
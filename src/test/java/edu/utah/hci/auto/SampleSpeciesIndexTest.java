@@ -0,0 +1,83 @@
+package edu.utah.hci.auto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SampleSpeciesIndexTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void writeAndLookupRoundTrip() throws IOException {
+		File idx = new File(tmp.getRoot(), "sampleSpeciesForORA.txt.idx");
+		//sorted by sample ID, the duplicate keeps the first
+		SampleSpeciesIndex.write(idx, new GNomExSample[] {
+				sample("21369X1", "Homo sapiens", "Y", "human"),
+				sample("21369X10", "Mus musculus", "N", null),
+				sample("21369X2", "Mus musculus", "Y", "mouse"),
+				sample("21369X2", "Homo sapiens", "N", "human"),
+				sample("21370X1", "Danio rerio", "Y", "zebrafish")});
+		assertFalse(new File(tmp.getRoot(), "tmp_sampleSpeciesForORA.txt.idx").exists());
+
+		SampleSpeciesIndex index = new SampleSpeciesIndex(idx);
+		assertEquals(4, index.getNumberRecords());
+
+		SampleSpeciesIndex.Entry e = index.lookup("21369X1");
+		assertEquals("21369X1", e.getSampleId());
+		assertTrue(e.isOraCompress());
+		assertEquals("human", e.getOraSpecies());
+
+		e = index.lookup("21369X10");
+		assertFalse(e.isOraCompress());
+		assertEquals("", e.getOraSpecies());
+
+		e = index.lookup("21369X2");
+		assertTrue(e.isOraCompress());
+		assertEquals("mouse", e.getOraSpecies());
+
+		assertEquals("zebrafish", index.lookup("21370X1").getOraSpecies());
+
+		//a prefix, a missing ID, and one longer than the key width
+		assertNull(index.lookup("21369X"));
+		assertNull(index.lookup("21369X3"));
+		assertNull(index.lookup("21369X1000000000"));
+	}
+
+	@Test
+	public void refreshPicksUpRewrite() throws IOException {
+		File idx = new File(tmp.getRoot(), "sampleSpeciesForORA.txt.idx");
+		SampleSpeciesIndex.write(idx, new GNomExSample[] {sample("21369X1", "Homo sapiens", "Y", "human")});
+		SampleSpeciesIndex index = new SampleSpeciesIndex(idx);
+		assertNull(index.lookup("21369X2"));
+
+		SampleSpeciesIndex.write(idx, new GNomExSample[] {sample("21369X1", "Homo sapiens", "Y", "human"), sample("21369X2", "Mus musculus", "Y", "mouse")});
+		//the mod time has 1 sec resolution on some file systems
+		idx.setLastModified(idx.lastModified() + 2000);
+		index.refresh();
+		assertEquals(2, index.getNumberRecords());
+		assertEquals("mouse", index.lookup("21369X2").getOraSpecies());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsNonIndexFile() throws IOException {
+		File f = tmp.newFile("sampleSpeciesForORA.txt");
+		Util.writeString("21369X1\tY\thuman\n", f);
+		new SampleSpeciesIndex(f);
+	}
+
+	private static GNomExSample sample(String sampleId, String species, String oraCompression, String oraSpecies) {
+		GNomExSample s = new GNomExSample(new String[] {"21369R", sampleId, species, "2026-10-01", "2026-10-02", oraCompression});
+		s.setOraSpecies(oraSpecies);
+		return s;
+	}
+}